@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a stream sent in the FTP compressed transfer mode (MODE C, RFC 959
+ * section 3.4.3).
+ * <p/>
+ * The stream ends at the end of file marker or, if the server closes the
+ * data connection without sending one, at the end of the underlying stream.
+ * Record and restart markers are skipped.
+ * <p/>
+ * Decoding works on one block at a time, whatever the stream size.
+ *
+ */
+public class CompressedModeInputStream extends FilterInputStream {
+
+    /** The filler byte. */
+    private final int _filler;
+
+    /** Bytes left in the current regular data block. */
+    private int _dataLeft;
+
+    /** Bytes left in the current replicated or filler string. */
+    private int _runLeft;
+
+    /** The byte of the current string. */
+    private int _runByte;
+
+    /** Set once the end of file is reached. */
+    private boolean _eof;
+
+    /**
+     * Create a decoder for ASCII transfers.
+     *
+     * @param in the data connection stream
+     */
+    public CompressedModeInputStream(final InputStream in) {
+        this(in, CompressedModeOutputStream.ASCII_FILLER);
+    }
+
+    /**
+     * Create a decoder.
+     *
+     * @param in the data connection stream
+     * @param filler the filler byte of the transfer type
+     */
+    public CompressedModeInputStream(final InputStream in, final int filler) {
+        super(in);
+        _filler = filler & 0xFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+        if (_runLeft > 0) {
+            _runLeft--;
+            return _runByte;
+        }
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Truncated compressed data block");
+        }
+        _dataLeft--;
+        return b;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int read(final byte[] b, final int off, final int len)
+            throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int count = 0;
+        while (count < len && nextBlock()) {
+            if (_runLeft > 0) {
+                int n = Math.min(_runLeft, len - count);
+                for (int i = 0; i < n; i++) {
+                    b[off + count + i] = (byte) _runByte;
+                }
+                _runLeft -= n;
+                count += n;
+            } else {
+                int n = in.read(b, off + count, Math.min(_dataLeft, len
+                        - count));
+                if (n < 0) {
+                    throw new EOFException("Truncated compressed data block");
+                }
+                _dataLeft -= n;
+                count += n;
+                /* Return what we have rather than block on the network */
+                if (_dataLeft > 0) {
+                    break;
+                }
+            }
+        }
+        return (count == 0) ? -1 : count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long skip(final long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && read() >= 0) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int available() throws IOException {
+        return _runLeft;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Read headers until there is something to return.
+     *
+     * @return false at the end of file
+     * @throws IOException if reading fails
+     */
+    private boolean nextBlock() throws IOException {
+        while (!_eof && _dataLeft == 0 && _runLeft == 0) {
+            int header = in.read();
+            if (header < 0) {
+                _eof = true;
+            } else if (header == CompressedModeOutputStream.ESCAPE) {
+                int descriptor = in.read();
+                if (descriptor < 0
+                        || (descriptor & CompressedModeOutputStream.EOF_DESCRIPTOR) != 0) {
+                    _eof = true;
+                }
+            } else if ((header & CompressedModeOutputStream.REPLICATED_HEADER) == 0) {
+                _dataLeft = header;
+            } else if ((header & CompressedModeOutputStream.FILLER_HEADER) == CompressedModeOutputStream.FILLER_HEADER) {
+                _runLeft = header & CompressedModeOutputStream.MAX_RUN_LENGTH;
+                _runByte = _filler;
+            } else {
+                _runByte = in.read();
+                if (_runByte < 0) {
+                    throw new EOFException("Truncated replicated string");
+                }
+                _runLeft = header & CompressedModeOutputStream.MAX_RUN_LENGTH;
+            }
+        }
+        return !_eof || _dataLeft > 0 || _runLeft > 0;
+    }
+}
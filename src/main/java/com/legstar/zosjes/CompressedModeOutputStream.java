@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a stream in the FTP compressed transfer mode (MODE C, RFC 959
+ * section 3.4.3).
+ * <p/>
+ * Runs of filler bytes (blanks in ASCII) become filler strings, runs of any
+ * other byte become replicated strings and everything else is sent as
+ * regular data blocks. The end of file marker is written on close.
+ * <p/>
+ * At most one data block is held in memory, whatever the stream size.
+ *
+ */
+public class CompressedModeOutputStream extends FilterOutputStream {
+
+    /** The filler byte for ASCII transfers. */
+    public static final int ASCII_FILLER = ' ';
+
+    /** Largest regular data block. */
+    public static final int MAX_DATA_LENGTH = 127;
+
+    /** Largest replicated or filler string. */
+    public static final int MAX_RUN_LENGTH = 63;
+
+    /** Header of replicated strings. */
+    public static final int REPLICATED_HEADER = 0x80;
+
+    /** Header of filler strings. */
+    public static final int FILLER_HEADER = 0xC0;
+
+    /** Escape sequence introducing a descriptor. */
+    public static final int ESCAPE = 0x00;
+
+    /** Descriptor marking the end of file. */
+    public static final int EOF_DESCRIPTOR = 0x40;
+
+    /** Shortest run of filler bytes worth a filler string. */
+    private static final int MIN_FILLER_RUN = 2;
+
+    /** Shortest run of other bytes worth a replicated string. */
+    private static final int MIN_REPLICATED_RUN = 3;
+
+    /** The filler byte. */
+    private final int _filler;
+
+    /** Pending regular data. */
+    private final byte[] _data = new byte[MAX_DATA_LENGTH];
+
+    /** Number of bytes of pending regular data. */
+    private int _dataLength;
+
+    /** The byte of the current run. */
+    private int _runByte = -1;
+
+    /** Length of the current run. */
+    private int _runLength;
+
+    /** Set once the end of file is written. */
+    private boolean _closed;
+
+    /**
+     * Create an encoder for ASCII transfers.
+     *
+     * @param out the data connection stream
+     */
+    public CompressedModeOutputStream(final OutputStream out) {
+        this(out, ASCII_FILLER);
+    }
+
+    /**
+     * Create an encoder.
+     *
+     * @param out the data connection stream
+     * @param filler the filler byte of the transfer type
+     */
+    public CompressedModeOutputStream(final OutputStream out, final int filler) {
+        super(out);
+        _filler = filler & 0xFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write(final int b) throws IOException {
+        int value = b & 0xFF;
+        if (value == _runByte) {
+            _runLength++;
+        } else {
+            endRun();
+            _runByte = value;
+            _runLength = 1;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write(final byte[] b, final int off, final int len)
+            throws IOException {
+        for (int i = off; i < off + len; i++) {
+            write(b[i]);
+        }
+    }
+
+    /**
+     * Sends everything pending except the current run, which might still
+     * grow.
+     *
+     * @throws IOException if writing fails
+     */
+    public void flush() throws IOException {
+        endRun();
+        flushData();
+        out.flush();
+    }
+
+    /**
+     * Writes the end of file marker and closes the data connection stream.
+     *
+     * @throws IOException if writing fails
+     */
+    public void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+        try {
+            endRun();
+            flushData();
+            out.write(ESCAPE);
+            out.write(EOF_DESCRIPTOR);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Encode the current run, either as a string or as regular data if it is
+     * too short.
+     *
+     * @throws IOException if writing fails
+     */
+    private void endRun() throws IOException {
+        if (_runLength == 0) {
+            return;
+        }
+        boolean isFiller = _runByte == _filler;
+        if (_runLength >= (isFiller ? MIN_FILLER_RUN : MIN_REPLICATED_RUN)) {
+            flushData();
+            int remaining = _runLength;
+            while (remaining > 0) {
+                int count = Math.min(remaining, MAX_RUN_LENGTH);
+                if (isFiller) {
+                    out.write(FILLER_HEADER | count);
+                } else {
+                    out.write(REPLICATED_HEADER | count);
+                    out.write(_runByte);
+                }
+                remaining -= count;
+            }
+        } else {
+            for (int i = 0; i < _runLength; i++) {
+                if (_dataLength == MAX_DATA_LENGTH) {
+                    flushData();
+                }
+                _data[_dataLength++] = (byte) _runByte;
+            }
+        }
+        _runByte = -1;
+        _runLength = 0;
+    }
+
+    /**
+     * Write pending regular data as a block.
+     *
+     * @throws IOException if writing fails
+     */
+    private void flushData() throws IOException {
+        if (_dataLength > 0) {
+            out.write(_dataLength);
+            out.write(_data, 0, _dataLength);
+            _dataLength = 0;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Limits the number of concurrent transfers and tunes that limit at runtime
+ * using additive increase, multiplicative decrease (AIMD).
+ * <p/>
+ * Completed transfers are grouped in windows of as many transfers as the
+ * current limit. At the end of each window, if throughput improved over the
+ * previous window, the limit grows by one. When the server signals
+ * congestion (421 or 425 replies) or a transfer takes much longer per byte
+ * than usual, the limit is halved. Transfers that started before the limit dropped
+ * cannot trigger another decrease, so a single congestion episode only
+ * halves the limit once.
+ * <p/>
+ * Each worker has a slot number. Workers whose slot is above the current
+ * limit are expected to close their session and wait for the limit to grow,
+ * so that the server sees fewer connections when it is congested.
+ *
+ */
+public class ConcurrencyController {
+
+    /** Throughput must improve by at least this ratio to grow the limit. */
+    public static final double IMPROVEMENT_RATIO = 1.05;
+
+    /** A transfer slower per byte than this many times the average is a spike. */
+    public static final double LATENCY_SPIKE_RATIO = 4.0;
+
+    /**
+     * Transfers smaller than this, whose duration is mostly fixed overhead,
+     * are measured as if they had this size.
+     */
+    public static final long LATENCY_MIN_BYTES = 65536L;
+
+    /** Weight of the latest sample in the latency moving average. */
+    public static final double LATENCY_SMOOTHING = 0.2;
+
+    /** Samples needed before latency spikes are detected. */
+    public static final int LATENCY_WARMUP = 8;
+
+    /** Smallest number of concurrent transfers. */
+    private final int _minLimit;
+
+    /** Largest number of concurrent transfers. */
+    private final int _maxLimit;
+
+    /** Where adjustments are reported. */
+    private final Log _log;
+
+    /** Current number of concurrent transfers allowed. */
+    private int _limit;
+
+    /** Transfers currently in flight. */
+    private int _inFlight;
+
+    /** Transfers completed in the current window. */
+    private int _windowCount;
+
+    /** Bytes transferred in the current window. */
+    private long _windowBytes;
+
+    /** Start of the current window. */
+    private long _windowStart;
+
+    /** Throughput, in bytes per second, of the last complete window. */
+    private double _lastThroughput;
+
+    /** Moving average of transfer latencies in nanoseconds per byte. */
+    private double _avgLatency;
+
+    /** Number of latency samples. */
+    private int _latencySamples;
+
+    /** Incremented on each decrease. Identifies when a transfer started. */
+    private long _epoch;
+
+    /** Set once no more transfers will be requested. */
+    private boolean _closed;
+
+    /**
+     * Create a controller. The initial limit is the minimum.
+     *
+     * @param minLimit smallest number of concurrent transfers
+     * @param maxLimit largest number of concurrent transfers
+     * @param log where adjustments are reported
+     */
+    public ConcurrencyController(final int minLimit, final int maxLimit,
+            final Log log) {
+        _minLimit = Math.max(1, minLimit);
+        _maxLimit = Math.max(_minLimit, maxLimit);
+        _log = log;
+        _limit = _minLimit;
+        _windowStart = System.nanoTime();
+    }
+
+    /**
+     * Wait until a new transfer is allowed to start.
+     *
+     * @return a ticket to pass back when the transfer ends
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (_inFlight >= _limit) {
+            wait();
+        }
+        _inFlight++;
+        return _epoch;
+    }
+
+    /**
+     * @param slot a worker slot, from zero
+     * @return true if the current limit lets the worker transfer
+     */
+    public synchronized boolean isAllowed(final int slot) {
+        return slot < _limit;
+    }
+
+    /**
+     * Wait until the limit grows enough for a worker to transfer.
+     *
+     * @param slot the worker slot, from zero
+     * @return false if the controller was closed while waiting
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitSlot(final int slot)
+            throws InterruptedException {
+        while (slot >= _limit) {
+            if (_closed) {
+                return false;
+            }
+            wait();
+        }
+        return true;
+    }
+
+    /**
+     * Record that no more transfers will be requested. Workers waiting for
+     * their slot are released.
+     */
+    public synchronized void close() {
+        _closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Report a completed transfer.
+     *
+     * @param ticket the ticket obtained when the transfer started
+     * @param bytes number of bytes transferred
+     * @param latency transfer duration in nanoseconds, not counting time
+     *            spent waiting for bandwidth limits
+     */
+    public synchronized void success(final long ticket, final long bytes,
+            final long latency) {
+        _inFlight--;
+        double byteLatency = (double) latency
+                / Math.max(bytes, LATENCY_MIN_BYTES);
+        boolean spike = _latencySamples >= LATENCY_WARMUP
+                && byteLatency > _avgLatency * LATENCY_SPIKE_RATIO;
+        _avgLatency = (_latencySamples == 0) ? byteLatency : _avgLatency
+                * (1 - LATENCY_SMOOTHING) + byteLatency * LATENCY_SMOOTHING;
+        _latencySamples++;
+        if (spike) {
+            decrease(ticket, "latency spike of " + (latency / 1000000L)
+                    + " ms");
+        } else {
+            _windowCount++;
+            _windowBytes += bytes;
+            if (_windowCount >= _limit) {
+                endWindow();
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Report a transfer that failed because the server is congested.
+     *
+     * @param ticket the ticket obtained when the transfer started
+     * @param reason the server reply
+     */
+    public synchronized void congestion(final long ticket,
+            final String reason) {
+        _inFlight--;
+        decrease(ticket, reason);
+        notifyAll();
+    }
+
+    /**
+     * Report a transfer that failed for any other reason.
+     */
+    public synchronized void failure() {
+        _inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * @return the current number of concurrent transfers allowed
+     */
+    public synchronized int getLimit() {
+        return _limit;
+    }
+
+    /**
+     * Close the current window and grow the limit if throughput improved.
+     */
+    private void endWindow() {
+        long now = System.nanoTime();
+        double elapsed = Math.max(1L, now - _windowStart) / 1e9;
+        double throughput = _windowBytes / elapsed;
+        if (throughput > _lastThroughput * IMPROVEMENT_RATIO
+                && _limit < _maxLimit) {
+            _log.info("Increasing concurrent sessions from " + _limit + " to "
+                    + (_limit + 1) + ", throughput "
+                    + (long) throughput + " bytes/s");
+            _limit++;
+        }
+        _lastThroughput = throughput;
+        resetWindow(now);
+    }
+
+    /**
+     * Halve the limit unless a decrease already happened since the transfer
+     * started.
+     *
+     * @param ticket the ticket obtained when the transfer started
+     * @param reason why the limit is decreased
+     */
+    private void decrease(final long ticket, final String reason) {
+        if (ticket != _epoch) {
+            return;
+        }
+        int newLimit = Math.max(_minLimit, _limit / 2);
+        if (newLimit < _limit) {
+            _log.info("Decreasing concurrent sessions from " + _limit
+                    + " to " + newLimit + ", " + reason);
+            _limit = newLimit;
+        }
+        _epoch++;
+        _lastThroughput = 0;
+        resetWindow(System.nanoTime());
+    }
+
+    /**
+     * Start a new measurement window.
+     *
+     * @param now the window start time
+     */
+    private void resetWindow(final long now) {
+        _windowCount = 0;
+        _windowBytes = 0;
+        _windowStart = now;
+    }
+}
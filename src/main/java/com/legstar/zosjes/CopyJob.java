@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates an IEBCOPY job that creates PDS members from members with the
+ * same content, already uploaded to other PDSs.
+ * <p/>
+ * All copies happen in a single step, with one COPY statement for each pair
+ * of input and output PDSs, followed by one SELECT statement per member.
+ * Since IEBCOPY does not accept the same input member twice in a COPY
+ * statement, a member copied to several names in the same PDS starts a new
+ * COPY statement for the same pair. Existing members are replaced.
+ * <p/>
+ * Dataset and member names are not case sensitive on z/OS, they are upper
+ * cased in the JCL. Output PDSs are allocated with DISP=OLD so that no other
+ * job updates them while IEBCOPY writes to them.
+ *
+ */
+public class CopyJob {
+
+    /** Time between two job status checks, in milliseconds. */
+    public static final long POLL_INTERVAL = 1000L;
+
+    /** Time to wait for the job output, in milliseconds. */
+    public static final long WAIT_TIMEOUT = 600000L;
+
+    /** The JCL lines up to the job card included. */
+    private final List < String > _jobCard;
+
+    /** DD names of the PDSs involved, by PDS name. */
+    private final Map < String, String > _ddNames = new LinkedHashMap < String, String >();
+
+    /** The PDSs written to. */
+    private final Set < String > _outputs = new HashSet < String >();
+
+    /** COPY statements, in order. */
+    private final List < CopyStatement > _statements = new ArrayList < CopyStatement >();
+
+    /** The last COPY statement of each pair of PDSs, by COPY statement text. */
+    private final Map < String, CopyStatement > _lastStatements = new HashMap < String, CopyStatement >();
+
+    /** Number of members copied. */
+    private int _size;
+
+    /**
+     * Create an empty copy job.
+     *
+     * @param jobCard the job card lines
+     */
+    public CopyJob(final List < String > jobCard) {
+        _jobCard = new ArrayList < String >(jobCard);
+    }
+
+    /**
+     * Build a default job card. The job name is the user ID followed by a
+     * character so that the FTP JES interface lists the job.
+     *
+     * @param userId the mainframe user ID
+     * @return the job card lines
+     */
+    public static List < String > getDefaultJobCard(final String userId) {
+        String user = userId.toUpperCase(Locale.ENGLISH);
+        if (user.length() > 7) {
+            user = user.substring(0, 7);
+        }
+        List < String > jobCard = new ArrayList < String >();
+        jobCard.add(String.format("//%-8s JOB CLASS=A,MSGCLASS=X", user + "C"));
+        return jobCard;
+    }
+
+    /**
+     * Add a member to copy. The member must be copied from another PDS.
+     *
+     * @param from the uploaded member
+     * @param to the member to create
+     */
+    public void add(final SourceMember from, final SourceMember to) {
+        String fromDataset = toUpperCase(from.getDatasetName());
+        String toDataset = toUpperCase(to.getDatasetName());
+        if (fromDataset.equals(toDataset)) {
+            throw new IllegalArgumentException("IEBCOPY cannot copy "
+                    + from.getRemoteName() + " to " + to.getRemoteName());
+        }
+        String fromMember = toUpperCase(from.getMemberName());
+        _outputs.add(toDataset);
+        String copy = "  COPY OUTDD=" + getDdName(toDataset) + ",INDD="
+                + getDdName(fromDataset);
+        CopyStatement statement = _lastStatements.get(copy);
+        if (statement == null || statement.getInputs().contains(fromMember)) {
+            statement = new CopyStatement(copy);
+            _statements.add(statement);
+            _lastStatements.put(copy, statement);
+        }
+        statement.getInputs().add(fromMember);
+        statement.getSelects().add("  SELECT MEMBER=((" + fromMember + ","
+                + toUpperCase(to.getMemberName()) + ",R))");
+        _size++;
+    }
+
+    /**
+     * @return the number of members copied
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return the job JCL
+     */
+    public String getJcl() {
+        StringBuilder sb = new StringBuilder();
+        for (String line : _jobCard) {
+            sb.append(line).append('\n');
+        }
+        sb.append("//COPY     EXEC PGM=IEBCOPY\n");
+        sb.append("//SYSPRINT DD SYSOUT=*\n");
+        for (Map.Entry < String, String > entry : _ddNames.entrySet()) {
+            sb.append(String.format("//%-8s DD DISP=%s,DSN=%s",
+                    entry.getValue(),
+                    _outputs.contains(entry.getKey()) ? "OLD" : "SHR",
+                    entry.getKey())).append('\n');
+        }
+        sb.append("//SYSIN    DD *\n");
+        for (CopyStatement statement : _statements) {
+            sb.append(statement.getCopy()).append('\n');
+            for (String select : statement.getSelects()) {
+                sb.append(select).append('\n');
+            }
+        }
+        sb.append("/*\n");
+        return sb.toString();
+    }
+
+    /**
+     * Submit the job and wait until its output is available.
+     * <p/>
+     * The job status is polled through the session. With an FTP server at
+     * JESINTERFACELEVEL 1, the server only lists jobs named after the user
+     * ID followed by one character, which is what the default job card
+     * does. A job with another name is reported as not found.
+     *
+     * @param session the session
+     * @return the content of the job output files
+     * @throws IOException if the job cannot be submitted or has no output in
+     *             time
+     */
+    public String submitWaitForOutput(final ZosTransport session)
+            throws IOException {
+        String jobId = session.submitJob(getJcl());
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (!ZosTransport.STATUS_OUTPUT.equals(session.getJobStatus(jobId))) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Job " + jobId + " has no output after "
+                        + WAIT_TIMEOUT + " ms");
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for job "
+                        + jobId);
+            }
+        }
+        return session.getJobOutput(jobId);
+    }
+
+    /**
+     * @param name a dataset or member name
+     * @return the name as z/OS knows it
+     */
+    private static String toUpperCase(final String name) {
+        return name.toUpperCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @param datasetName an upper case PDS name
+     * @return the DD name of the PDS, allocated on first use
+     */
+    private String getDdName(final String datasetName) {
+        String ddName = _ddNames.get(datasetName);
+        if (ddName == null) {
+            ddName = "DD" + (_ddNames.size() + 1);
+            _ddNames.put(datasetName, ddName);
+        }
+        return ddName;
+    }
+
+    /**
+     * A COPY statement with its SELECT statements.
+     */
+    private static class CopyStatement {
+
+        /** The COPY statement. */
+        private final String _copy;
+
+        /** The SELECT statements. */
+        private final List < String > _selects = new ArrayList < String >();
+
+        /** The input members selected so far. */
+        private final Set < String > _inputs = new HashSet < String >();
+
+        /**
+         * @param copy the COPY statement
+         */
+        CopyStatement(final String copy) {
+            _copy = copy;
+        }
+
+        /**
+         * @return the COPY statement
+         */
+        public String getCopy() {
+            return _copy;
+        }
+
+        /**
+         * @return the SELECT statements
+         */
+        public List < String > getSelects() {
+            return _selects;
+        }
+
+        /**
+         * @return the input members selected so far
+         */
+        public Set < String > getInputs() {
+            return _inputs;
+        }
+    }
+}
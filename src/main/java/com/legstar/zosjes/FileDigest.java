@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes content hashes of local files.
+ * <p/>
+ * Hashes identify the JCL content recorded in a job checkpoint and the
+ * members with the same content that can be copied on z/OS instead of
+ * being uploaded.
+ *
+ */
+public final class FileDigest {
+
+    /** Hexadecimal digits. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Utility class. */
+    private FileDigest() {
+    }
+
+    /**
+     * Compute the hash of a file content.
+     *
+     * @param file the file
+     * @return the MD5 hash as an hexadecimal string
+     * @throws IOException if file cannot be read
+     */
+    public static String hash(final File file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            InputStream is = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = is.read(buffer)) > 0) {
+                    digest.update(buffer, 0, count);
+                }
+            } finally {
+                is.close();
+            }
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * @param bytes a byte array
+     * @return the hexadecimal representation of the bytes
+     */
+    public static String toHex(final byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
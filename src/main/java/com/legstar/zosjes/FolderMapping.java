@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+/**
+ * Maps local folders to a PDS name.
+ * <p/>
+ * By default a local folder maps to a PDS whose name is the remote prefix
+ * followed by the folder path relative to the input folder, with each path
+ * segment becoming a qualifier (zos/COBOL/COPY maps to PREFIX.COBOL.COPY).
+ * A folder mapping overrides that rule for all folders that match a glob
+ * pattern. For instance:
+ * <pre>
+ *     &lt;folderMapping&gt;
+ *         &lt;folder&gt;src/**&#47;copybooks&lt;/folder&gt;
+ *         &lt;qualifier&gt;COPY&lt;/qualifier&gt;
+ *     &lt;/folderMapping&gt;
+ * </pre>
+ * uploads files from any copybooks folder below src to PREFIX.COPY.
+ *
+ */
+public class FolderMapping {
+
+    /** Glob pattern selecting local folders, relative to the input folder. */
+    private String folder;
+
+    /** Qualifiers appended to the remote prefix to form the PDS name. */
+    private String qualifier;
+
+    /**
+     * No-arg constructor.
+     */
+    public FolderMapping() {
+    }
+
+    /**
+     * Create a complete mapping.
+     *
+     * @param folder glob pattern selecting local folders
+     * @param qualifier qualifiers appended to the remote prefix
+     */
+    public FolderMapping(final String folder, final String qualifier) {
+        this.folder = folder;
+        this.qualifier = qualifier;
+    }
+
+    /**
+     * @return the glob pattern selecting local folders, relative to the input
+     *         folder
+     */
+    public String getFolder() {
+        return folder;
+    }
+
+    /**
+     * @param folder the glob pattern selecting local folders, relative to the
+     *            input folder
+     */
+    public void setFolder(final String folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * @return the qualifiers appended to the remote prefix to form the PDS name
+     */
+    public String getQualifier() {
+        return qualifier;
+    }
+
+    /**
+     * @param qualifier the qualifiers appended to the remote prefix to form the
+     *            PDS name
+     */
+    public void setQualifier(final String qualifier) {
+        this.qualifier = qualifier;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        return folder + "=" + qualifier;
+    }
+}
@@ -10,17 +10,30 @@
  ******************************************************************************/
 package com.legstar.zosjes;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPClientConfig;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPFileEntryParser;
+import org.apache.commons.net.ftp.FTPFileEntryParserImpl;
 import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.net.ftp.parser.DefaultFTPFileEntryParserFactory;
+import org.apache.commons.net.io.FromNetASCIIInputStream;
+import org.apache.commons.net.io.ToNetASCIIOutputStream;
 
 /**
  * Manages an FTP connection to a z/OS server.
@@ -28,28 +41,69 @@ import org.apache.commons.net.ftp.FTPReply;
  * Makes it simple to upload ASCII files and submit JCL for execution.
  * 
  */
-public class FtpZosClient {
+public class FtpZosClient implements ZosTransport {
 
     /** Apache commons net FTP client. */
     FTPClient _ftpClient;
 
+    /** Records operation timings. */
+    private TraceRecorder _tracer = TraceRecorder.DISABLED;
+
+    /** The trace track for this session. */
+    private int _track;
+
+    /** Limits the bandwidth of uploads. */
+    private Throttle _uploadThrottle = Throttle.NONE;
+
+    /** Limits the bandwidth of downloads. */
+    private Throttle _downloadThrottle = Throttle.NONE;
+
+    /** Whether transfers use the compressed mode. */
+    private boolean _compressedTransfer;
+
+    /** SITE parameters known to be in effect, keyed by upper case keyword. */
+    private final Map < String, String > _siteState = new HashMap < String, String >();
+
+    /** The server JES interface level, zero until known. */
+    private int _jesInterfaceLevel;
+
     /** The expected string reply from FTP z/OS on job submission. */
     public static final String SUBMIT_REPLY = "250-It is known to JES as ";
 
     /** Condition code the way it appears in jobs held output. */
-    public static final Pattern COND_CODE_PATTERN = Pattern.compile(
-            "COND CODE (\\d{4})", Pattern.CASE_INSENSITIVE);
+    public static final Pattern COND_CODE_PATTERN = JobOutputAnalyzer.COND_CODE_PATTERN;
 
     /** Completion code in case of abend. */
-    public static final Pattern COMPLETION_CODE_PATTERN = Pattern.compile(
-            "COMPLETION CODE - SYSTEM=(\\d{3})", Pattern.CASE_INSENSITIVE);
+    public static final Pattern COMPLETION_CODE_PATTERN = JobOutputAnalyzer.COMPLETION_CODE_PATTERN;
 
     /** Job not run report. */
-    public static final Pattern JCL_ERROR_PATTERN = Pattern.compile(
-            "JOB NOT RUN - JCL ERROR", Pattern.CASE_INSENSITIVE);
+    public static final Pattern JCL_ERROR_PATTERN = JobOutputAnalyzer.JCL_ERROR_PATTERN;
+
+    /** JES job ID, the first one in a held output is the job's own. */
+    public static final Pattern JOB_ID_PATTERN = JobOutputAnalyzer.JOB_ID_PATTERN;
 
     /** Because zOS does not have a return code for JCL error, we fake one. */
-    public static final int JCL_ERROR_COND_CODE = 9;
+    public static final int JCL_ERROR_COND_CODE = JobOutputAnalyzer.JCL_ERROR_COND_CODE;
+
+    /** Largest block size that fits 2 blocks per 3390 track. */
+    public static final int HALF_TRACK_BLOCK_SIZE = 27998;
+
+    /** The CWD reply fragment showing the directory is a PDS. */
+    public static final String PDS_REPLY = "partitioned data set";
+
+    /** Job statuses as they appear in JES listings. */
+    public static final String[] JES_STATUSES = { STATUS_INPUT, "HELD",
+            STATUS_ACTIVE, STATUS_OUTPUT };
+
+    /** The parser key of JES listings. */
+    public static final String JES_PARSER_KEY = "JES";
+
+    /** The JES interface level reported by STAT. */
+    public static final Pattern JES_INTERFACE_LEVEL_PATTERN = Pattern
+            .compile("JESINTERFACELEVEL\\s+is\\s+(\\d+)");
+
+    /** The JES interface level assumed when STAT does not report it. */
+    public static final int DEFAULT_JES_INTERFACE_LEVEL = 2;
 
     /**
      * No-arg constructor.
@@ -59,6 +113,7 @@ public class FtpZosClient {
         FTPClientConfig ftpConf = new FTPClientConfig(FTPClientConfig.SYST_MVS);
         ftpConf.setServerTimeZoneId("GMT");
         _ftpClient.configure(ftpConf);
+        _ftpClient.setParserFactory(new JesListParserFactory());
     }
 
     /**
@@ -74,13 +129,74 @@ public class FtpZosClient {
         if (_ftpClient.isConnected()) {
             _ftpClient.disconnect();
         }
+        _siteState.clear();
+        _jesInterfaceLevel = 0;
+        long start = _tracer.begin();
         _ftpClient.connect(hostname);
+        _tracer.end(_track, "connect", start, -1L, hostname, null);
         if (!FTPReply.isPositiveCompletion(_ftpClient.getReplyCode())) {
-            throw new IOException(hostname + " not responding");
+            processFtpError();
         }
-        if (!_ftpClient.login(hostUserID, hostPassword)) {
+        start = _tracer.begin();
+        boolean loggedIn = _ftpClient.login(hostUserID, hostPassword);
+        _tracer.end(_track, "login", start);
+        if (!loggedIn) {
             processFtpError();
         }
+        if (_compressedTransfer) {
+            startCompressedTransfer();
+        }
+    }
+
+    /**
+     * @return true if the session is connected to the mainframe
+     */
+    public boolean isConnected() {
+        return _ftpClient.isConnected();
+    }
+
+    /**
+     * Limit the bandwidth used by this session.
+     * 
+     * @param uploadThrottle limits the bandwidth of uploads and submits
+     * @param downloadThrottle limits the bandwidth of output retrieval
+     */
+    public void setThrottles(final Throttle uploadThrottle,
+            final Throttle downloadThrottle) {
+        _uploadThrottle = uploadThrottle;
+        _downloadThrottle = downloadThrottle;
+    }
+
+    /**
+     * Use the compressed transfer mode (MODE C) for uploads, submits and
+     * output retrieval. Runs of blanks and repeated characters, which are
+     * common in fixed length source records and spool listings, are then
+     * sent as a couple of bytes.
+     * <p/>
+     * Takes effect when the session is opened.
+     * 
+     * @param compressedTransfer true to use the compressed transfer mode
+     */
+    public void setCompressedTransfer(final boolean compressedTransfer) {
+        _compressedTransfer = compressedTransfer;
+    }
+
+    /**
+     * @return true if transfers use the compressed transfer mode
+     */
+    public boolean isCompressedTransfer() {
+        return _compressedTransfer;
+    }
+
+    /**
+     * Record the timing of each operation of this session.
+     * 
+     * @param tracer the trace recorder
+     * @param track the timeline track of this session
+     */
+    public void setTracer(final TraceRecorder tracer, final int track) {
+        _tracer = tracer;
+        _track = track;
     }
 
     /**
@@ -92,10 +208,59 @@ public class FtpZosClient {
      */
     public void upload(final String remote, final File local)
             throws IOException {
-        if (!_ftpClient.sendSiteCommand("FILEtype=SEQ")) {
-            processFtpError();
+        InputStream is = new FileInputStream(local);
+        try {
+            upload(remote, is, local.length());
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Upload content already in memory to the mainframe.
+     * 
+     * @param remote the z/OS name of the file
+     * @param content the file content
+     * @throws IOException if upload fails
+     */
+    public void upload(final String remote, final byte[] content)
+            throws IOException {
+        upload(remote, new ByteArrayInputStream(content), content.length);
+    }
+
+    /**
+     * Upload a stream to the mainframe.
+     * 
+     * @param remote the z/OS name of the file
+     * @param is the content stream
+     * @param length the content length, only used for tracing
+     * @throws IOException if upload fails
+     */
+    protected void upload(final String remote, final InputStream is,
+            final long length) throws IOException {
+        site("FILEtype=SEQ");
+        long start = _tracer.begin();
+        boolean stored;
+        if (_compressedTransfer) {
+            OutputStream os = openStoreStream(remote);
+            if (os == null) {
+                processFtpError();
+            }
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = is.read(buffer)) > 0) {
+                    os.write(buffer, 0, count);
+                }
+            } finally {
+                os.close();
+            }
+            stored = _ftpClient.completePendingCommand();
+        } else {
+            stored = _ftpClient.storeFile(remote, _uploadThrottle.wrap(is));
         }
-        if (!_ftpClient.storeFile(remote, new FileInputStream(local))) {
+        _tracer.end(_track, "store", start, length, remote, null);
+        if (!stored) {
             processFtpError();
         }
     }
@@ -113,11 +278,10 @@ public class FtpZosClient {
     public String submitJob(final String jcl) throws IOException {
 
         String jobId = null;
-        if (!_ftpClient.sendSiteCommand("FILEtype=JES")) {
-            processFtpError();
-        }
+        site("FILEtype=JES");
 
-        OutputStream os = _ftpClient.storeFileStream("P390JCL8");
+        long start = _tracer.begin();
+        OutputStream os = openStoreStream("P390JCL8");
         if (os == null) {
             processFtpError();
         }
@@ -137,6 +301,7 @@ public class FtpZosClient {
         } else {
             processFtpError();
         }
+        _tracer.end(_track, "submit", start, jcl.length(), null, jobId);
 
         return jobId;
     }
@@ -149,7 +314,7 @@ public class FtpZosClient {
      * @throws IOException if something goes wrong
      */
     public String getJobOutput(final String jobId) throws IOException {
-        return getJesResource(jobId + ".x");
+        return getJesResource(jobId + ".x", "retrieve");
     }
 
     /**
@@ -162,7 +327,201 @@ public class FtpZosClient {
      */
     public String submitWaitForOutput(final String remoteFile)
             throws IOException {
-        return getJesResource(remoteFile);
+        return getJesResource(remoteFile, "wait");
+    }
+
+    /**
+     * Purges a job and its output from the JES spool.
+     * 
+     * @param jobId the job ID to purge
+     * @throws IOException if the purge fails
+     */
+    public void purgeJob(final String jobId) throws IOException {
+        site("FILEtype=JES");
+        long start = _tracer.begin();
+        boolean deleted = _ftpClient.deleteFile(jobId);
+        _tracer.end(_track, "purge", start, -1L, null, jobId);
+        if (!deleted) {
+            processFtpError();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * At JES interface level 1, the server cannot list a job by ID, all the
+     * jobs it lets the user see are listed instead. These are only the jobs
+     * named after the user ID followed by one character.
+     */
+    public String getJobStatus(final String jobId) throws IOException {
+        site("FILEtype=JES");
+        boolean levelOne = getJesInterfaceLevel() < 2;
+        long start = _tracer.begin();
+        String[] entries = listJes(levelOne ? null : jobId);
+        _tracer.end(_track, "status", start, -1L, null, jobId);
+        for (String entry : entries) {
+            if (entry.indexOf(jobId) < 0) {
+                continue;
+            }
+            for (String token : entry.trim().split("\\s+")) {
+                for (String status : JES_STATUSES) {
+                    if (status.equalsIgnoreCase(token)) {
+                        return status;
+                    }
+                }
+            }
+        }
+        if (levelOne) {
+            throw new IOException("Job " + jobId + " not found in JES. The"
+                    + " server is at JESINTERFACELEVEL 1 and only lists jobs"
+                    + " named after the user ID followed by one character");
+        }
+        throw new IOException("Job " + jobId + " not found in JES");
+    }
+
+    /**
+     * Get the server JES interface level, asking the server with STAT the
+     * first time in a session.
+     * 
+     * @return the JES interface level
+     * @throws IOException if the STAT command fails
+     */
+    protected int getJesInterfaceLevel() throws IOException {
+        if (_jesInterfaceLevel == 0) {
+            long start = _tracer.begin();
+            int reply = _ftpClient.stat();
+            _tracer.end(_track, "STAT", start);
+            if (!FTPReply.isPositiveCompletion(reply)) {
+                processFtpError();
+            }
+            _jesInterfaceLevel = DEFAULT_JES_INTERFACE_LEVEL;
+            String[] replies = _ftpClient.getReplyStrings();
+            if (replies != null) {
+                for (String line : replies) {
+                    Matcher matcher = JES_INTERFACE_LEVEL_PATTERN
+                            .matcher(line);
+                    if (matcher.find()) {
+                        _jesInterfaceLevel = Integer.parseInt(matcher
+                                .group(1));
+                        break;
+                    }
+                }
+            }
+        }
+        return _jesInterfaceLevel;
+    }
+
+    /**
+     * List JES jobs.
+     * <p/>
+     * Listings are read in stream mode, which commons net handles, so in
+     * compressed mode the session is switched to stream mode for the
+     * duration of the listing.
+     * 
+     * @param filter the LIST parameter, a job ID or a job name pattern, or
+     *            null to list all the jobs the server shows
+     * @return the raw listing lines that contain a job ID
+     * @throws IOException if the listing fails
+     */
+    protected String[] listJes(final String filter) throws IOException {
+        if (_compressedTransfer
+                && !_ftpClient.setFileTransferMode(FTP.STREAM_TRANSFER_MODE)) {
+            processFtpError();
+        }
+        FTPFile[] files;
+        boolean restored = true;
+        try {
+            files = _ftpClient.initiateListParsing(JES_PARSER_KEY, filter)
+                    .getFiles();
+            if (!FTPReply.isPositiveCompletion(_ftpClient.getReplyCode())) {
+                processFtpError();
+            }
+        } finally {
+            if (_compressedTransfer && _ftpClient.isConnected()) {
+                restored = _ftpClient
+                        .setFileTransferMode(FTP.COMPRESSED_TRANSFER_MODE);
+            }
+        }
+        if (!restored) {
+            processFtpError();
+        }
+        int count = 0;
+        String[] entries = new String[files.length];
+        for (FTPFile file : files) {
+            if (file != null) {
+                entries[count++] = file.getRawListing();
+            }
+        }
+        String[] result = new String[count];
+        System.arraycopy(entries, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Checks whether a partitioned data set exists.
+     * <p/>
+     * Relies on the z/OS server reply to CWD. As a side effect, the working
+     * directory changes, which does not matter as long as names are fully
+     * qualified.
+     * 
+     * @param datasetName the fully qualified data set name, unquoted
+     * @return true if the data set exists and is partitioned
+     * @throws IOException if the connection fails
+     */
+    public boolean isPartitionedDataset(final String datasetName)
+            throws IOException {
+        long start = _tracer.begin();
+        boolean changed = _ftpClient.changeWorkingDirectory("'" + datasetName
+                + "'");
+        _tracer.end(_track, "CWD", start, -1L, datasetName, null);
+        return changed
+                && _ftpClient.getReplyString().toLowerCase()
+                        .indexOf(PDS_REPLY) > -1;
+    }
+
+    /**
+     * Allocates a PDSE with a half track optimal block size.
+     * 
+     * @param datasetName the fully qualified data set name, unquoted
+     * @param recfm the record format (FB, VB, ...)
+     * @param lrecl the logical record length
+     * @param primary the primary space in tracks
+     * @param secondary the secondary space in tracks
+     * @param directory the number of directory blocks
+     * @throws IOException if allocation fails
+     */
+    public void allocatePds(final String datasetName, final String recfm,
+            final int lrecl, final int primary, final int secondary,
+            final int directory) throws IOException {
+        site("RECFM=" + recfm + " LRECL=" + lrecl + " BLKSIZE="
+                + getOptimalBlockSize(recfm, lrecl)
+                + " DSNTYPE=LIBRARY TRACKS PRIMARY=" + primary
+                + " SECONDARY=" + secondary + " DIRECTORY=" + directory);
+        long start = _tracer.begin();
+        boolean created = _ftpClient.makeDirectory("'" + datasetName + "'");
+        _tracer.end(_track, "allocate", start, -1L, datasetName, null);
+        if (!created) {
+            processFtpError();
+        }
+    }
+
+    /**
+     * Computes the largest block size that still fits 2 blocks on a 3390
+     * track, which wastes the least space.
+     * 
+     * @param recfm the record format (FB, VB, ...)
+     * @param lrecl the logical record length
+     * @return the half track optimal block size
+     */
+    public static int getOptimalBlockSize(final String recfm, final int lrecl) {
+        String format = recfm.toUpperCase();
+        if (format.startsWith("F") && lrecl > 0) {
+            if (format.indexOf('B') < 0) {
+                return lrecl;
+            }
+            return Math.max(1, HALF_TRACK_BLOCK_SIZE / lrecl) * lrecl;
+        }
+        return HALF_TRACK_BLOCK_SIZE;
     }
 
     /**
@@ -173,45 +532,162 @@ public class FtpZosClient {
      * @throws IOException if something goes wrong
      */
     public String getJesResource(final String jesResource) throws IOException {
-        if (!_ftpClient.sendSiteCommand("FILEtype=JES")) {
-            processFtpError();
-        }
+        return getJesResource(jesResource, "retrieve");
+    }
+
+    /**
+     * Get something back from Jes, tracing the operation under a name.
+     * 
+     * @param jesResource a job id or file name holding JCL to submit
+     * @param operation the operation name in the trace
+     * @return the content of the submitted job output files
+     * @throws IOException if something goes wrong
+     */
+    protected String getJesResource(final String jesResource,
+            final String operation) throws IOException {
+        site("FILEtype=JES");
+        long start = _tracer.begin();
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        if (!_ftpClient.retrieveFile(jesResource, baos)) {
+        boolean retrieved;
+        if (_compressedTransfer) {
+            InputStream is = _ftpClient.retrieveFileStream(jesResource);
+            if (is == null) {
+                processFtpError();
+            }
+            is = new FromNetASCIIInputStream(new CompressedModeInputStream(
+                    new BufferedInputStream(_downloadThrottle.wrap(is))));
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = is.read(buffer)) > 0) {
+                    baos.write(buffer, 0, count);
+                }
+            } finally {
+                is.close();
+            }
+            retrieved = _ftpClient.completePendingCommand();
+        } else {
+            retrieved = _ftpClient.retrieveFile(jesResource,
+                    _downloadThrottle.wrap(baos));
+        }
+        if (!retrieved) {
             processFtpError();
         }
         baos.close();
         String result = baos.toString("UTF-8"); // TODO why UTF-8?
+        if (_tracer.isEnabled()) {
+            _tracer.end(_track, operation, start, baos.size(), jesResource,
+                    getJobId(result));
+        }
         return result;
     }
 
     /**
-     * Extracts the highest condition code from a job output. First look for a
-     * potential abend or jcl error then, if none if found, examine each step
-     * condition code and keep the highest.
+     * Open a data connection to store a remote file.
+     * <p/>
+     * In compressed mode, commons net is told the transfer type is binary so
+     * that it leaves the data alone, while the server is told it is ASCII.
+     * The line ends conversion commons net would have done is performed here
+     * instead, before the compression.
      * 
-     * @param heldOutput the job held output
-     * @return the highest condition code
+     * @param remote the remote file name
+     * @return a stream to write the file content to or null if the server
+     *         refused the transfer
+     * @throws IOException if the data connection cannot be opened
      */
-    public int getHighestCondCode(final String heldOutput) {
-        int maxCondCode = -1;
-        Matcher matcher = COMPLETION_CODE_PATTERN.matcher(heldOutput);
-        if (matcher.find()) {
-            int completionCode = Integer.parseInt(matcher.group(1));
-            return completionCode;
+    protected OutputStream openStoreStream(final String remote)
+            throws IOException {
+        OutputStream os = _ftpClient.storeFileStream(remote);
+        if (os == null) {
+            return null;
+        }
+        os = _uploadThrottle.wrap(os);
+        if (_compressedTransfer) {
+            os = new ToNetASCIIOutputStream(new CompressedModeOutputStream(
+                    new BufferedOutputStream(os)));
         }
+        return os;
+    }
 
-        matcher = JCL_ERROR_PATTERN.matcher(heldOutput);
-        if (matcher.find()) {
-            return JCL_ERROR_COND_CODE;
+    /**
+     * Switch the session to the compressed transfer mode for ASCII data.
+     * 
+     * @throws IOException if the server does not support compressed mode
+     */
+    protected void startCompressedTransfer() throws IOException {
+        if (!_ftpClient.setFileType(FTP.BINARY_FILE_TYPE)) {
+            processFtpError();
         }
+        if (!FTPReply.isPositiveCompletion(_ftpClient
+                .type(FTP.ASCII_FILE_TYPE))) {
+            processFtpError();
+        }
+        if (!_ftpClient.setFileTransferMode(FTP.COMPRESSED_TRANSFER_MODE)) {
+            processFtpError();
+        }
+    }
 
-        matcher = COND_CODE_PATTERN.matcher(heldOutput);
-        while (matcher.find()) {
-            int condCode = Integer.parseInt(matcher.group(1));
-            maxCondCode = (condCode > maxCondCode) ? condCode : maxCondCode;
+    /**
+     * Send a SITE command, leaving out the parameters that are already in
+     * effect on this session. Nothing is sent if they all are.
+     * <p/>
+     * Only keyword=value parameters are remembered, other ones are always
+     * sent.
+     * 
+     * @param parameters the SITE command parameters
+     * @throws IOException if the command is rejected
+     */
+    protected void site(final String parameters) throws IOException {
+        StringBuilder changes = new StringBuilder();
+        Map < String, String > updates = new HashMap < String, String >();
+        for (String parameter : parameters.trim().split("\\s+")) {
+            int equal = parameter.indexOf('=');
+            if (equal > 0) {
+                String keyword = parameter.substring(0, equal).toUpperCase();
+                String value = parameter.substring(equal + 1).toUpperCase();
+                if (value.equals(_siteState.get(keyword))) {
+                    continue;
+                }
+                updates.put(keyword, value);
+            }
+            if (changes.length() > 0) {
+                changes.append(' ');
+            }
+            changes.append(parameter);
+        }
+        if (changes.length() == 0) {
+            return;
+        }
+        String command = changes.toString();
+        long start = _tracer.begin();
+        boolean accepted = _ftpClient.sendSiteCommand(command);
+        _tracer.end(_track, "SITE", start, -1L, command, null);
+        if (!accepted) {
+            processFtpError();
         }
-        return maxCondCode;
+        _siteState.putAll(updates);
+    }
+
+    /**
+     * Extracts the highest condition code from a job output.
+     * 
+     * @param heldOutput the job held output
+     * @return the highest condition code
+     * @see JobOutputAnalyzer#getHighestCondCode(String)
+     */
+    public int getHighestCondCode(final String heldOutput) {
+        return JobOutputAnalyzer.getHighestCondCode(heldOutput);
+    }
+
+    /**
+     * Extracts the JES job ID from a job output.
+     * 
+     * @param heldOutput the job held output
+     * @return the job ID or null if none is found
+     * @see JobOutputAnalyzer#getJobId(String)
+     */
+    public String getJobId(final String heldOutput) {
+        return JobOutputAnalyzer.getJobId(heldOutput);
     }
 
     /**
@@ -236,6 +712,8 @@ public class FtpZosClient {
      */
     protected void processFtpError() throws IOException {
         String errors[] = _ftpClient.getReplyStrings();
+        _siteState.clear();
+        _jesInterfaceLevel = 0;
         _ftpClient.disconnect();
 
         if (errors == null || errors.length == 0) {
@@ -243,4 +721,38 @@ public class FtpZosClient {
         }
         throw new IOException(errors[0]);
     }
+
+    /**
+     * Creates the JES listing parser, other keys are handled as usual. The
+     * FTP client keeps the first parser it creates, which is fine since this
+     * client only lists JES.
+     */
+    private static class JesListParserFactory extends
+            DefaultFTPFileEntryParserFactory {
+
+        /** {@inheritDoc} */
+        public FTPFileEntryParser createFileEntryParser(final String key) {
+            if (JES_PARSER_KEY.equals(key)) {
+                return new JesListParser();
+            }
+            return super.createFileEntryParser(key);
+        }
+    }
+
+    /**
+     * Keeps the raw JES listing lines that describe a job.
+     */
+    private static class JesListParser extends FTPFileEntryParserImpl {
+
+        /** {@inheritDoc} */
+        public FTPFile parseFTPEntry(final String entry) {
+            if (!JOB_ID_PATTERN.matcher(entry).find()) {
+                return null;
+            }
+            FTPFile file = new FTPFile();
+            file.setRawListing(entry);
+            file.setName(JobOutputAnalyzer.getJobId(entry));
+            return file;
+        }
+    }
 }
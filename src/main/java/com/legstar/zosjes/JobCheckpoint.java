@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * A journal of the jobs submitted during a run.
+ * <p/>
+ * For each job, the journal keeps the hash of the JCL content that was
+ * submitted, the JES job ID and the highest condition code. The journal is
+ * saved after each job so that, if a job in a chain fails, the next run can
+ * skip the jobs that already succeeded and restart from the failed one.
+ *
+ */
+public class JobCheckpoint {
+
+    /** Suffix of the property holding the JCL content hash. */
+    public static final String HASH_SUFFIX = ".hash";
+
+    /** Suffix of the property holding the JES job ID. */
+    public static final String JOB_ID_SUFFIX = ".jobId";
+
+    /** Suffix of the property holding the highest condition code. */
+    public static final String COND_CODE_SUFFIX = ".condCode";
+
+    /** The journal file. */
+    private final File _file;
+
+    /** The journal content. */
+    private final Properties _entries = new Properties();
+
+    /**
+     * Create a journal.
+     *
+     * @param file the journal file
+     */
+    public JobCheckpoint(final File file) {
+        _file = file;
+    }
+
+    /**
+     * Load the journal left by a previous run, if any.
+     *
+     * @throws IOException if journal cannot be read
+     */
+    public synchronized void load() throws IOException {
+        _entries.clear();
+        if (_file.exists()) {
+            InputStream is = new FileInputStream(_file);
+            try {
+                _entries.load(is);
+            } finally {
+                is.close();
+            }
+        }
+    }
+
+    /**
+     * Forget all jobs and delete the journal file.
+     *
+     * @throws IOException if journal cannot be deleted
+     */
+    public synchronized void reset() throws IOException {
+        _entries.clear();
+        if (_file.exists() && !_file.delete()) {
+            throw new IOException("Unable to delete " + _file);
+        }
+    }
+
+    /**
+     * Determine if a job already succeeded with the same JCL.
+     *
+     * @param job the job key
+     * @param hash the hash of the JCL content
+     * @param maxCondCode the highest condition code considered a success
+     * @return true if the job does not need to run again
+     */
+    public synchronized boolean isCompleted(final String job,
+            final String hash, final int maxCondCode) {
+        String condCode = _entries.getProperty(job + COND_CODE_SUFFIX);
+        return hash.equals(_entries.getProperty(job + HASH_SUFFIX))
+                && condCode != null
+                && Integer.parseInt(condCode) <= maxCondCode;
+    }
+
+    /**
+     * @param job the job key
+     * @return the JES job ID recorded for a job or null if none
+     */
+    public synchronized String getJobId(final String job) {
+        return _entries.getProperty(job + JOB_ID_SUFFIX);
+    }
+
+    /**
+     * Record a job execution and save the journal.
+     *
+     * @param job the job key
+     * @param hash the hash of the JCL content
+     * @param jobId the JES job ID (may be null if unknown)
+     * @param condCode the highest condition code
+     * @throws IOException if journal cannot be saved
+     */
+    public synchronized void record(final String job, final String hash,
+            final String jobId, final int condCode) throws IOException {
+        _entries.setProperty(job + HASH_SUFFIX, hash);
+        if (jobId == null) {
+            _entries.remove(job + JOB_ID_SUFFIX);
+        } else {
+            _entries.setProperty(job + JOB_ID_SUFFIX, jobId);
+        }
+        _entries.setProperty(job + COND_CODE_SUFFIX, Integer
+                .toString(condCode));
+        save();
+    }
+
+    /**
+     * Save the journal. Content is written to a temporary file first so that
+     * a crash never leaves a truncated journal.
+     *
+     * @throws IOException if journal cannot be saved
+     */
+    protected void save() throws IOException {
+        File parent = _file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        File temp = new File(_file.getPath() + ".tmp");
+        OutputStream os = new FileOutputStream(temp);
+        try {
+            _entries.store(os, "z/OS upload job checkpoint");
+        } finally {
+            os.close();
+        }
+        if (_file.exists() && !_file.delete()) {
+            throw new IOException("Unable to replace " + _file);
+        }
+        if (!temp.renameTo(_file)) {
+            throw new IOException("Unable to rename " + temp + " to " + _file);
+        }
+    }
+}
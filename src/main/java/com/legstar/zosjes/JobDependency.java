@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Declares the uploads a CNTL job depends on.
+ * <p/>
+ * By default a job is submitted once all files of its module are uploaded.
+ * A job dependency lets the job be submitted as soon as its own member and
+ * the files it needs are uploaded, while other uploads continue. Inputs are
+ * glob patterns, relative to the input folder, matching either files or the
+ * folder they are in. For instance:
+ * <pre>
+ *     &lt;jobDependency&gt;
+ *         &lt;job&gt;COMPILE&lt;/job&gt;
+ *         &lt;inputs&gt;
+ *             &lt;input&gt;COBOL&lt;/input&gt;
+ *             &lt;input&gt;COPY/CUST*&lt;/input&gt;
+ *         &lt;/inputs&gt;
+ *     &lt;/jobDependency&gt;
+ * </pre>
+ * submits CNTL/COMPILE once all files from the COBOL folder and the
+ * copybooks whose name starts with CUST are uploaded.
+ *
+ */
+public class JobDependency {
+
+    /** The JCL file name, as it appears in the CNTL folder. */
+    private String job;
+
+    /** Glob patterns of the files or folders the job depends on. */
+    private List < String > inputs = new ArrayList < String >();
+
+    /**
+     * No-arg constructor.
+     */
+    public JobDependency() {
+    }
+
+    /**
+     * Create a complete dependency.
+     *
+     * @param job the JCL file name
+     * @param inputs glob patterns of the files or folders the job depends on
+     */
+    public JobDependency(final String job, final List < String > inputs) {
+        this.job = job;
+        this.inputs = inputs;
+    }
+
+    /**
+     * @return the JCL file name, as it appears in the CNTL folder
+     */
+    public String getJob() {
+        return job;
+    }
+
+    /**
+     * @param job the JCL file name, as it appears in the CNTL folder
+     */
+    public void setJob(final String job) {
+        this.job = job;
+    }
+
+    /**
+     * @return the glob patterns, relative to the input folder, of the files
+     *         or folders the job depends on
+     */
+    public List < String > getInputs() {
+        return inputs;
+    }
+
+    /**
+     * @param inputs the glob patterns, relative to the input folder, of the
+     *            files or folders the job depends on
+     */
+    public void setInputs(final List < String > inputs) {
+        this.inputs = inputs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        return job + "=" + inputs;
+    }
+}
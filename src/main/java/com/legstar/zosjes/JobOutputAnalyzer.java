@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Analyzes job held output, whatever transport retrieved it.
+ *
+ */
+public final class JobOutputAnalyzer {
+
+    /** Condition code the way it appears in jobs held output. */
+    public static final Pattern COND_CODE_PATTERN = Pattern.compile(
+            "COND CODE (\\d{4})", Pattern.CASE_INSENSITIVE);
+
+    /** Completion code in case of abend. */
+    public static final Pattern COMPLETION_CODE_PATTERN = Pattern.compile(
+            "COMPLETION CODE - SYSTEM=(\\d{3})", Pattern.CASE_INSENSITIVE);
+
+    /** Job not run report. */
+    public static final Pattern JCL_ERROR_PATTERN = Pattern.compile(
+            "JOB NOT RUN - JCL ERROR", Pattern.CASE_INSENSITIVE);
+
+    /** JES job ID, the first one in a held output is the job's own. */
+    public static final Pattern JOB_ID_PATTERN = Pattern.compile(
+            "\\b(JOB\\d{5}|J\\d{7})\\b");
+
+    /** Because zOS does not have a return code for JCL error, we fake one. */
+    public static final int JCL_ERROR_COND_CODE = 9;
+
+    /** Utility class. */
+    private JobOutputAnalyzer() {
+    }
+
+    /**
+     * Extracts the highest condition code from a job output. First look for a
+     * potential abend or jcl error then, if none if found, examine each step
+     * condition code and keep the highest.
+     *
+     * @param heldOutput the job held output
+     * @return the highest condition code
+     */
+    public static int getHighestCondCode(final String heldOutput) {
+        int maxCondCode = -1;
+        Matcher matcher = COMPLETION_CODE_PATTERN.matcher(heldOutput);
+        if (matcher.find()) {
+            int completionCode = Integer.parseInt(matcher.group(1));
+            return completionCode;
+        }
+
+        matcher = JCL_ERROR_PATTERN.matcher(heldOutput);
+        if (matcher.find()) {
+            return JCL_ERROR_COND_CODE;
+        }
+
+        matcher = COND_CODE_PATTERN.matcher(heldOutput);
+        while (matcher.find()) {
+            int condCode = Integer.parseInt(matcher.group(1));
+            maxCondCode = (condCode > maxCondCode) ? condCode : maxCondCode;
+        }
+        return maxCondCode;
+    }
+
+    /**
+     * Extracts the JES job ID from a job output.
+     *
+     * @param heldOutput the job held output
+     * @return the job ID or null if none is found
+     */
+    public static String getJobId(final String heldOutput) {
+        Matcher matcher = JOB_ID_PATTERN.matcher(heldOutput);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return null;
+    }
+}
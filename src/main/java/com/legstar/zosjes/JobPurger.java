@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Purges the output of submitted jobs from the JES spool.
+ * <p/>
+ * Jobs are registered as their output is analyzed, according to a policy
+ * that can keep the output of failed jobs. Nothing is purged until all jobs
+ * are done. Registered jobs are then purged in a single batch, on a
+ * background thread with its own session, while the run winds down, so
+ * that purges never delay submissions.
+ *
+ */
+public class JobPurger {
+
+    /** Never purge job output. */
+    public static final String NEVER = "never";
+
+    /** Purge the output of successful jobs only. */
+    public static final String KEEP_FAILED = "keepFailed";
+
+    /** Purge the output of all jobs. */
+    public static final String ALWAYS = "always";
+
+    /** The purge policy. */
+    private final String _policy;
+
+    /** Opens sessions. */
+    private final SessionFactory _sessions;
+
+    /** The maven logger. */
+    private final Log _log;
+
+    /** Jobs waiting to be purged. */
+    private final List < String > _jobIds = new ArrayList < String >();
+
+    /** The threads purging jobs, one per batch. */
+    private final List < Thread > _threads = new ArrayList < Thread >();
+
+    /**
+     * Create a purger.
+     *
+     * @param policy one of {@link #NEVER}, {@link #KEEP_FAILED} or
+     *            {@link #ALWAYS}
+     * @param sessions opens sessions
+     * @param log the maven logger
+     */
+    public JobPurger(final String policy, final SessionFactory sessions,
+            final Log log) {
+        if (!NEVER.equals(policy) && !KEEP_FAILED.equals(policy)
+                && !ALWAYS.equals(policy)) {
+            throw new IllegalArgumentException("Invalid purge policy "
+                    + policy + ", must be one of " + NEVER + ", "
+                    + KEEP_FAILED + " or " + ALWAYS);
+        }
+        _policy = policy;
+        _sessions = sessions;
+        _log = log;
+    }
+
+    /**
+     * Register a job whose output was retrieved.
+     *
+     * @param jobId the job ID (ignored if null)
+     * @param failed true if the job failed
+     * @return true if the job will be purged
+     */
+    public synchronized boolean add(final String jobId, final boolean failed) {
+        if (jobId == null || NEVER.equals(_policy)
+                || (failed && KEEP_FAILED.equals(_policy))) {
+            return false;
+        }
+        _jobIds.add(jobId);
+        return true;
+    }
+
+    /**
+     * @return the number of jobs waiting to be purged
+     */
+    public synchronized int size() {
+        return _jobIds.size();
+    }
+
+    /**
+     * Start purging, in the background, the jobs registered since the last
+     * batch was started.
+     */
+    public synchronized void start() {
+        if (_jobIds.size() == 0) {
+            return;
+        }
+        final List < String > jobIds = new ArrayList < String >(_jobIds);
+        _jobIds.clear();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                purge(jobIds);
+            }
+        }, "zosupload-purger");
+        thread.setDaemon(true);
+        _threads.add(thread);
+        thread.start();
+    }
+
+    /**
+     * Wait for the background purges to complete.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        List < Thread > threads;
+        synchronized (this) {
+            threads = new ArrayList < Thread >(_threads);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Purge a batch of jobs. Failures are reported but do not stop the batch
+     * since purges are only housekeeping.
+     *
+     * @param jobIds the jobs to purge
+     */
+    protected void purge(final List < String > jobIds) {
+        int purged = 0;
+        int track = _sessions.getTracer().newTrack("purge");
+        ZosTransport session = null;
+        try {
+            for (String jobId : jobIds) {
+                try {
+                    /* On errors the server drops the session */
+                    if (session == null || !session.isConnected()) {
+                        session = _sessions.openSession(track);
+                    }
+                    session.purgeJob(jobId);
+                    purged++;
+                } catch (IOException e) {
+                    _log.warn("Unable to purge job " + jobId + ": "
+                            + e.getMessage());
+                }
+            }
+        } finally {
+            try {
+                if (session != null) {
+                    session.close();
+                }
+            } catch (IOException e) {
+                // Just ignore. mainframe will wipe up connection anyway
+            }
+        }
+        _log.info("Purged " + purged + " of " + jobIds.size()
+                + " jobs from the JES spool");
+    }
+}
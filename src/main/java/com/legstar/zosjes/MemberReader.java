@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read stage of the upload pipeline.
+ * <p/>
+ * A background thread takes members from an upstream stage, reads their
+ * content and queues them in a bounded queue. This way, uploads never wait
+ * for the local disk.
+ * <p/>
+ * Cancelling releases the consumers waiting for a member, which then get
+ * the end of the stage.
+ *
+ */
+public class MemberReader implements MemberSource {
+
+    /** Default number of members read ahead of uploads. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 32;
+
+    /** How long consumers wait before checking for cancellation, in milliseconds. */
+    public static final long CANCEL_CHECK_INTERVAL = 100L;
+
+    /** Marks the end of the upstream stage in the queue. */
+    private static final SourceMember END_OF_READ = new SourceMember(null,
+            null, null, null);
+
+    /** The upstream stage. */
+    private final MemberSource _upstream;
+
+    /** Members read and waiting to be uploaded. */
+    private final BlockingQueue < SourceMember > _queue;
+
+    /** The thread reading files. */
+    private Thread _thread;
+
+    /** The first read error. */
+    private volatile IOException _failure;
+
+    /** Set once the end marker has been consumed or when cancelled. */
+    private volatile boolean _done;
+
+    /**
+     * Create a read stage.
+     *
+     * @param upstream the stage producing members to read
+     * @param queueCapacity number of members read ahead of uploads
+     */
+    public MemberReader(final MemberSource upstream, final int queueCapacity) {
+        _upstream = upstream;
+        _queue = new ArrayBlockingQueue < SourceMember >(Math.max(1,
+                queueCapacity));
+    }
+
+    /**
+     * Start reading in the background.
+     */
+    public void start() {
+        _thread = new Thread(new Runnable() {
+            public void run() {
+                read();
+            }
+        }, "zosupload-reader");
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SourceMember take() throws InterruptedException {
+        while (!_done) {
+            SourceMember member = _queue.poll(CANCEL_CHECK_INTERVAL,
+                    TimeUnit.MILLISECONDS);
+            if (member == END_OF_READ) {
+                /* Leave the marker for any other consumer waiting on the queue */
+                _done = true;
+                _queue.offer(END_OF_READ);
+                return null;
+            }
+            if (member != null) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void cancel() {
+        _done = true;
+        _upstream.cancel();
+        if (_thread != null) {
+            _thread.interrupt();
+        }
+        _queue.clear();
+        /* Wake up consumers waiting on the queue */
+        _queue.offer(END_OF_READ);
+    }
+
+    /**
+     * @return the first error reading a file or null if none
+     */
+    public IOException getFailure() {
+        return _failure;
+    }
+
+    /**
+     * Read members until the upstream stage is exhausted.
+     */
+    protected void read() {
+        try {
+            SourceMember member;
+            while ((member = _upstream.take()) != null) {
+                _queue.put(new SourceMember(member.getFile(), member
+                        .getFolder(), member.getDatasetName(), member
+                        .getMemberName(), readContent(member)));
+            }
+        } catch (IOException e) {
+            _failure = e;
+            _upstream.cancel();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                if (!_done) {
+                    _queue.put(END_OF_READ);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @param member a member
+     * @return the content of the member local file
+     * @throws IOException if file cannot be read
+     */
+    protected byte[] readContent(final SourceMember member)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream((int) member
+                .getFile().length());
+        InputStream is = new FileInputStream(member.getFile());
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) > 0) {
+                baos.write(buffer, 0, count);
+            }
+        } finally {
+            is.close();
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+/**
+ * A pipeline stage that produces members to upload.
+ * <p/>
+ * Implementations are safe for use by several consuming threads.
+ *
+ */
+public interface MemberSource {
+
+    /**
+     * Get the next member, waiting for one if necessary.
+     *
+     * @return the next member or null if there are no more
+     * @throws InterruptedException if interrupted while waiting
+     */
+    SourceMember take() throws InterruptedException;
+
+    /**
+     * Stop producing members. Members not yet consumed are discarded.
+     */
+    void cancel();
+}
@@ -0,0 +1,391 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the members discovered by the scanners of several modules into a
+ * single stream, so that they share the same upload sessions.
+ * <p/>
+ * Scanners are consumed in turn, so that a module with a large tree does not
+ * hold back the members, and the jobs, of the other modules.
+ * <p/>
+ * A member that several modules upload to the same place is only produced
+ * once, provided all copies have the same content. Copies with different
+ * content are reported as errors and not produced at all.
+ * <p/>
+ * Optionally, a member with the same content as a member of another PDS
+ * already produced is not produced either. It is recorded as a copy to be
+ * made on z/OS instead.
+ * <p/>
+ * Each member discovered, including those produced on behalf of another
+ * module, and the completion of each folder and each scan are reported to an
+ * optional tracker.
+ * <p/>
+ * Since members are uploaded as they are discovered, the source stops on the
+ * first invalid name or conflict found, and no longer reports completed
+ * folders or scans, so that jobs do not run on an invalid tree.
+ *
+ */
+public class MergedSource implements MemberSource {
+
+    /** How long to wait for a member once all scanners were found idle, in milliseconds. */
+    public static final long POLL_INTERVAL = 10L;
+
+    /** The scanners, in module order. */
+    private final List < SourceScanner > _scanners;
+
+    /** Notified of discovered members and completed scans (may be null). */
+    private final UploadTracker _tracker;
+
+    /** Index of the next scanner to consume. */
+    private int _current;
+
+    /** Whether each scanner is exhausted. */
+    private final boolean[] _exhausted;
+
+    /** Number of scanners not exhausted yet. */
+    private int _remaining;
+
+    /** Members produced so far, keyed by upper case remote name. */
+    private final Map < String, SourceMember > _produced = new HashMap < String, SourceMember >();
+
+    /** Remote names of members with conflicting copies. */
+    private final List < String > _conflicts = new ArrayList < String >();
+
+    /** Number of copies that were not produced because identical. */
+    private int _duplicateCount;
+
+    /** Whether members with the same content are produced once. */
+    private boolean _deduplicateContent;
+
+    /** Members produced so far, by content hash. */
+    private final Map < String, List < SourceMember > > _blobs = new HashMap < String, List < SourceMember > >();
+
+    /** Members to copy on z/OS, with the produced member they copy. */
+    private final Map < SourceMember, SourceMember > _copies = new LinkedHashMap < SourceMember, SourceMember >();
+
+    /** Bytes of the members to copy on z/OS. */
+    private long _copiedBytes;
+
+    /** Set once all scanners are exhausted or when cancelled. */
+    private volatile boolean _done;
+
+    /** Set once a conflict is found. */
+    private volatile boolean _conflicting;
+
+    /**
+     * Create a merged source.
+     *
+     * @param scanners the scanners, in module order
+     * @param tracker notified of discovered members and completed scans,
+     *            in scanner order (may be null)
+     */
+    public MergedSource(final List < SourceScanner > scanners,
+            final UploadTracker tracker) {
+        _scanners = new ArrayList < SourceScanner >(scanners);
+        _tracker = tracker;
+        _exhausted = new boolean[_scanners.size()];
+        _remaining = _scanners.size();
+        if (tracker != null) {
+            for (int i = 0; i < _scanners.size(); i++) {
+                final int module = i;
+                _scanners.get(i).setFolderListener(
+                        new SourceScanner.FolderListener() {
+                            public void scanned(final String folder) {
+                                if (!hasErrors()) {
+                                    _tracker.scanned(module, folder);
+                                }
+                            }
+                        });
+            }
+        }
+    }
+
+    /**
+     * Start all scanners. They scan in parallel, each one up to the capacity
+     * of its queue.
+     */
+    public void start() {
+        for (SourceScanner scanner : _scanners) {
+            scanner.start();
+        }
+    }
+
+    /**
+     * Scan all trees, discarding members, up to the first error. This is
+     * meant for scanners used only to validate trees.
+     *
+     * @return the validation errors
+     * @throws InterruptedException if interrupted while scanning
+     */
+    public List < String > validate() throws InterruptedException {
+        start();
+        while (take() != null) {
+            continue;
+        }
+        return getErrors();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized SourceMember take() throws InterruptedException {
+        int idle = 0;
+        while (!_done && _remaining > 0) {
+            if (hasErrors()) {
+                cancel();
+                break;
+            }
+            int index = _current;
+            _current = (_current + 1) % _scanners.size();
+            if (_exhausted[index]) {
+                continue;
+            }
+            SourceScanner scanner = _scanners.get(index);
+            /* Only block once every scanner was found idle */
+            SourceMember member = scanner.poll(
+                    (idle < _remaining) ? 0 : POLL_INTERVAL,
+                    TimeUnit.MILLISECONDS);
+            if (member == null) {
+                if (scanner.isDone()) {
+                    _exhausted[index] = true;
+                    _remaining--;
+                    idle = 0;
+                    if (_tracker != null && !hasErrors()) {
+                        _tracker.scanned(index);
+                    }
+                } else {
+                    idle++;
+                }
+                continue;
+            }
+            idle = 0;
+            if (_tracker != null) {
+                _tracker.discovered(index, member);
+            }
+            String key = member.getRemoteName().toUpperCase(Locale.ENGLISH);
+            SourceMember first = _produced.get(key);
+            if (first == null) {
+                _produced.put(key, member);
+                if (_deduplicateContent && isCopy(member)) {
+                    continue;
+                }
+                return member;
+            }
+            if (sameContent(first.getFile(), member.getFile())) {
+                _duplicateCount++;
+            } else {
+                _conflicts.add("Different files map to "
+                        + member.getRemoteName() + ": " + first.getFile()
+                        + " and " + member.getFile());
+                _conflicting = true;
+            }
+        }
+        _done = true;
+        return null;
+    }
+
+    /**
+     * Record a member as a copy if a member with the same content was
+     * produced for another PDS, otherwise remember its content.
+     *
+     * @param member a member about to be produced
+     * @return true if the member is a copy and must not be produced
+     */
+    private boolean isCopy(final SourceMember member) {
+        String hash;
+        try {
+            hash = FileDigest.hash(member.getFile());
+        } catch (IOException e) {
+            /* The read stage reports unreadable files */
+            return false;
+        }
+        List < SourceMember > blobs = _blobs.get(hash);
+        if (blobs == null) {
+            blobs = new ArrayList < SourceMember >();
+            _blobs.put(hash, blobs);
+        }
+        for (SourceMember blob : blobs) {
+            if (!blob.getDatasetName().equalsIgnoreCase(
+                    member.getDatasetName())) {
+                _copies.put(member, blob);
+                _copiedBytes += member.getFile().length();
+                return true;
+            }
+        }
+        blobs.add(member);
+        return false;
+    }
+
+    /**
+     * @param deduplicateContent whether a member with the same content as a
+     *            member of another PDS is recorded as a copy instead of
+     *            being produced
+     */
+    public void setDeduplicateContent(final boolean deduplicateContent) {
+        _deduplicateContent = deduplicateContent;
+    }
+
+    /**
+     * @return the members to copy on z/OS, each with the produced member it
+     *         copies, in discovery order
+     */
+    public synchronized Map < SourceMember, SourceMember > getCopies() {
+        return new LinkedHashMap < SourceMember, SourceMember >(_copies);
+    }
+
+    /**
+     * @return the bytes of the members to copy on z/OS
+     */
+    public synchronized long getCopiedBytes() {
+        return _copiedBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void cancel() {
+        _done = true;
+        for (SourceScanner scanner : _scanners) {
+            scanner.cancel();
+        }
+    }
+
+    /**
+     * @param index a scanner index
+     * @return the scanner
+     */
+    public SourceScanner getScanner(final int index) {
+        return _scanners.get(index);
+    }
+
+    /**
+     * Check for errors without waiting for a member being produced.
+     *
+     * @return true if a scanner found an invalid name or a conflict was
+     *         found
+     */
+    public boolean hasErrors() {
+        if (_conflicting) {
+            return true;
+        }
+        for (SourceScanner scanner : _scanners) {
+            if (scanner.hasErrors()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the validation errors of all scanners and the conflicts found
+     *         so far
+     */
+    public synchronized List < String > getErrors() {
+        List < String > errors = new ArrayList < String >();
+        for (SourceScanner scanner : _scanners) {
+            errors.addAll(scanner.getErrors());
+        }
+        errors.addAll(_conflicts);
+        return errors;
+    }
+
+    /**
+     * @return the number of valid files discovered by all scanners so far
+     */
+    public int getDiscoveredCount() {
+        int count = 0;
+        for (SourceScanner scanner : _scanners) {
+            count += scanner.getDiscoveredCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of identical copies that were not produced
+     */
+    public synchronized int getDuplicateCount() {
+        return _duplicateCount;
+    }
+
+    /**
+     * @return the target PDS names of all scanners, sorted
+     */
+    public List < String > getDatasetNames() {
+        TreeSet < String > names = new TreeSet < String >();
+        for (SourceScanner scanner : _scanners) {
+            names.addAll(scanner.getDatasetNames());
+        }
+        return Collections.unmodifiableList(new ArrayList < String >(names));
+    }
+
+    /**
+     * @param file1 a file
+     * @param file2 another file
+     * @return true if both files have the same content
+     */
+    protected static boolean sameContent(final File file1, final File file2) {
+        if (file1.equals(file2)) {
+            return true;
+        }
+        if (file1.length() != file2.length()) {
+            return false;
+        }
+        InputStream is1 = null;
+        InputStream is2 = null;
+        try {
+            is1 = new BufferedInputStream(new FileInputStream(file1));
+            is2 = new BufferedInputStream(new FileInputStream(file2));
+            int b;
+            while ((b = is1.read()) >= 0) {
+                if (b != is2.read()) {
+                    return false;
+                }
+            }
+            return is2.read() < 0;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            close(is1);
+            close(is2);
+        }
+    }
+
+    /**
+     * Close a stream, ignoring errors.
+     *
+     * @param is the stream (may be null)
+     */
+    private static void close(final InputStream is) {
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // Nothing was written, nothing to lose
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a module wants uploaded: a local folder tree, the PDS names it maps
+ * to and the JCLs to submit once uploaded.
+ *
+ */
+public class ModuleUpload {
+
+    /** The module name, used in messages. */
+    private final String _name;
+
+    /** The local folder containing sub folders whose content is to be uploaded. */
+    private final File _inputFolder;
+
+    /** The target z/OS file name prefix. */
+    private final String _remoteFilesPrefix;
+
+    /** JCLs to submit, in order (all CNTL members if empty). */
+    private final List < String > _jclFileNames = new ArrayList < String >();
+
+    /** Glob patterns of files to upload (all files if empty). */
+    private final List < String > _includes = new ArrayList < String >();
+
+    /** Glob patterns of files or folders to ignore. */
+    private final List < String > _excludes = new ArrayList < String >();
+
+    /** Rules mapping local folders to PDS names. */
+    private final List < FolderMapping > _folderMappings = new ArrayList < FolderMapping >();
+
+    /** The inputs declared by CNTL jobs. */
+    private final List < JobDependency > _jobDependencies = new ArrayList < JobDependency >();
+
+    /**
+     * Create a module upload.
+     *
+     * @param name the module name
+     * @param inputFolder the local folder to upload
+     * @param remoteFilesPrefix the target z/OS file name prefix
+     * @param jclFileNames JCLs to submit, in order (may be null)
+     * @param includes glob patterns of files to upload (may be null)
+     * @param excludes glob patterns of files or folders to ignore (may be
+     *            null)
+     * @param folderMappings rules mapping local folders to PDS names (may be
+     *            null)
+     * @param jobDependencies the inputs declared by CNTL jobs (may be null)
+     */
+    public ModuleUpload(final String name, final File inputFolder,
+            final String remoteFilesPrefix, final List < String > jclFileNames,
+            final List < String > includes, final List < String > excludes,
+            final List < FolderMapping > folderMappings,
+            final List < JobDependency > jobDependencies) {
+        _name = name;
+        _inputFolder = inputFolder;
+        _remoteFilesPrefix = remoteFilesPrefix;
+        if (jclFileNames != null) {
+            _jclFileNames.addAll(jclFileNames);
+        }
+        if (includes != null) {
+            _includes.addAll(includes);
+        }
+        if (excludes != null) {
+            _excludes.addAll(excludes);
+        }
+        if (folderMappings != null) {
+            _folderMappings.addAll(folderMappings);
+        }
+        if (jobDependencies != null) {
+            _jobDependencies.addAll(jobDependencies);
+        }
+    }
+
+    /**
+     * Create a scanner for this module tree.
+     *
+     * @param threads number of threads listing folders in parallel
+     * @return a new scanner, not started
+     */
+    public SourceScanner createScanner(final int threads) {
+        return new SourceScanner(_inputFolder, _remoteFilesPrefix, _includes,
+                _excludes, _folderMappings, threads,
+                SourceScanner.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @return the module name
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * @return the local folder to upload
+     */
+    public File getInputFolder() {
+        return _inputFolder;
+    }
+
+    /**
+     * @return the target z/OS file name prefix
+     */
+    public String getRemoteFilesPrefix() {
+        return _remoteFilesPrefix;
+    }
+
+    /**
+     * @return the JCLs to submit, in order (all CNTL members if empty)
+     */
+    public List < String > getJclFileNames() {
+        return _jclFileNames;
+    }
+
+    /**
+     * @param jcl a JCL file name, as it appears in the CNTL folder
+     * @return glob patterns of the files or folders the job depends on, or
+     *         null if it depends on all files of the module
+     */
+    public List < String > getJobInputs(final String jcl) {
+        for (JobDependency dependency : _jobDependencies) {
+            if (jcl.equals(dependency.getJob())) {
+                List < String > inputs = new ArrayList < String >();
+                if (dependency.getInputs() != null) {
+                    inputs.addAll(dependency.getInputs());
+                }
+                return inputs;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        return _name + " (" + _inputFolder + " to " + _remoteFilesPrefix + ")";
+    }
+}
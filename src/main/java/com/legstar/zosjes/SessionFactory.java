@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.IOException;
+
+/**
+ * Opens sessions to a z/OS server, all configured the same way.
+ *
+ */
+public class SessionFactory {
+
+    /** Sessions use FTP. */
+    public static final String FTP = "ftp";
+
+    /** Sessions use the z/OSMF REST services. */
+    public static final String ZOSMF = "zosmf";
+
+    /** The kind of sessions to open. */
+    private String _transport = FTP;
+
+    /** The z/OS FTP server IP address. */
+    private final String _hostName;
+
+    /** The z/OS user ID to use for authentication. */
+    private final String _hostUserId;
+
+    /** The z/OS password to use for authentication. */
+    private final String _hostPassword;
+
+    /** Records the timing of session operations. */
+    private TraceRecorder _tracer = TraceRecorder.DISABLED;
+
+    /** Limits the bandwidth of uploads. */
+    private Throttle _uploadThrottle = Throttle.NONE;
+
+    /** Limits the bandwidth of downloads. */
+    private Throttle _downloadThrottle = Throttle.NONE;
+
+    /** Whether sessions use the compressed transfer mode. */
+    private boolean _compressedTransfer;
+
+    /**
+     * Create a session factory.
+     *
+     * @param hostName the z/OS FTP server IP address
+     * @param hostUserId the z/OS user ID to use for authentication
+     * @param hostPassword the z/OS password to use for authentication
+     */
+    public SessionFactory(final String hostName, final String hostUserId,
+            final String hostPassword) {
+        _hostName = hostName;
+        _hostUserId = hostUserId;
+        _hostPassword = hostPassword;
+    }
+
+    /**
+     * Open a new session.
+     *
+     * @param track the timeline track of the session
+     * @return an open session
+     * @throws IOException if connection fails
+     */
+    public ZosTransport openSession(final int track) throws IOException {
+        ZosTransport session = createSession();
+        session.setTracer(_tracer, track);
+        session.setThrottles(_uploadThrottle, _downloadThrottle);
+        session.open(_hostName, _hostUserId, _hostPassword);
+        return session;
+    }
+
+    /**
+     * @return a new session of the requested kind, not open yet
+     */
+    protected ZosTransport createSession() {
+        if (ZOSMF.equals(_transport)) {
+            return new ZosmfRestClient();
+        }
+        FtpZosClient ftpZosClient = new FtpZosClient();
+        ftpZosClient.setCompressedTransfer(_compressedTransfer);
+        return ftpZosClient;
+    }
+
+    /**
+     * @return the kind of sessions opened, {@link #FTP} or {@link #ZOSMF}
+     */
+    public String getTransport() {
+        return _transport;
+    }
+
+    /**
+     * @param transport the kind of sessions to open, {@link #FTP} or
+     *            {@link #ZOSMF}
+     */
+    public void setTransport(final String transport) {
+        if (!FTP.equals(transport) && !ZOSMF.equals(transport)) {
+            throw new IllegalArgumentException("Invalid transport "
+                    + transport + ", must be one of " + FTP + " or " + ZOSMF);
+        }
+        _transport = transport;
+    }
+
+    /**
+     * @return the z/OS FTP server IP address
+     */
+    public String getHostName() {
+        return _hostName;
+    }
+
+    /**
+     * @return records the timing of session operations
+     */
+    public TraceRecorder getTracer() {
+        return _tracer;
+    }
+
+    /**
+     * @param tracer records the timing of session operations
+     */
+    public void setTracer(final TraceRecorder tracer) {
+        _tracer = tracer;
+    }
+
+    /**
+     * @param uploadThrottle limits the bandwidth of uploads and submits
+     * @param downloadThrottle limits the bandwidth of output retrieval
+     */
+    public void setThrottles(final Throttle uploadThrottle,
+            final Throttle downloadThrottle) {
+        _uploadThrottle = uploadThrottle;
+        _downloadThrottle = downloadThrottle;
+    }
+
+    /**
+     * @return true if sessions use the compressed transfer mode
+     */
+    public boolean isCompressedTransfer() {
+        return _compressedTransfer;
+    }
+
+    /**
+     * @param compressedTransfer true if FTP sessions use the compressed
+     *            transfer mode
+     */
+    public void setCompressedTransfer(final boolean compressedTransfer) {
+        _compressedTransfer = compressedTransfer;
+    }
+}
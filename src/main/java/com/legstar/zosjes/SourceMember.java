@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+
+/**
+ * A local file that was discovered by the scanner and the PDS member it
+ * should be uploaded to.
+ *
+ */
+public class SourceMember {
+
+    /** The local file. */
+    private final File _file;
+
+    /** The local folder path relative to the input folder ('/' separated). */
+    private final String _folder;
+
+    /** The target PDS name. */
+    private final String _datasetName;
+
+    /** The target member name. */
+    private final String _memberName;
+
+    /** The file content, once it has been read. */
+    private final byte[] _content;
+
+    /**
+     * Create a source member.
+     *
+     * @param file the local file
+     * @param folder the local folder path relative to the input folder
+     * @param datasetName the target PDS name
+     * @param memberName the target member name
+     */
+    public SourceMember(final File file, final String folder,
+            final String datasetName, final String memberName) {
+        this(file, folder, datasetName, memberName, null);
+    }
+
+    /**
+     * Create a source member whose content was read.
+     *
+     * @param file the local file
+     * @param folder the local folder path relative to the input folder
+     * @param datasetName the target PDS name
+     * @param memberName the target member name
+     * @param content the file content
+     */
+    public SourceMember(final File file, final String folder,
+            final String datasetName, final String memberName,
+            final byte[] content) {
+        _file = file;
+        _folder = folder;
+        _datasetName = datasetName;
+        _memberName = memberName;
+        _content = content;
+    }
+
+    /**
+     * @return the local file
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * @return the local folder path relative to the input folder ('/'
+     *         separated)
+     */
+    public String getFolder() {
+        return _folder;
+    }
+
+    /**
+     * @return the target PDS name
+     */
+    public String getDatasetName() {
+        return _datasetName;
+    }
+
+    /**
+     * @return the target member name
+     */
+    public String getMemberName() {
+        return _memberName;
+    }
+
+    /**
+     * @return the file content or null if it was not read
+     */
+    public byte[] getContent() {
+        return _content;
+    }
+
+    /**
+     * @return the fully qualified, quoted, z/OS name of the member
+     */
+    public String getRemoteName() {
+        return "'" + _datasetName + "(" + _memberName + ")'";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        return _file + " to " + getRemoteName();
+    }
+}
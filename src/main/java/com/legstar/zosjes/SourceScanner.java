@@ -0,0 +1,575 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Walks an input folder tree and discovers the files to upload.
+ * <p/>
+ * Folders are listed in parallel by a small pool of threads. Each eligible
+ * file is mapped to a PDS member, validated, and queued in a bounded queue
+ * that the uploader consumes while the scan is still in progress. Since the
+ * queue is bounded, the scanner never holds more than a fixed number of
+ * discovered files in memory, whatever the size of the tree.
+ * <p/>
+ * Paths are matched against ant-style glob patterns where '*' matches any
+ * characters within a path segment, '?' a single character and '**' any
+ * number of folders. Patterns are relative to the input folder and always
+ * use '/' as the separator.
+ * <p/>
+ * Files directly under the input folder are ignored since they have no
+ * corresponding PDS.
+ * <p/>
+ * A listener can be told when a folder and all its sub folders are
+ * completely scanned. It is notified by the consumer thread, once all the
+ * files of that folder have been consumed.
+ *
+ */
+public class SourceScanner implements MemberSource {
+
+    /** A valid PDS member name. */
+    public static final Pattern MEMBER_NAME_PATTERN = Pattern.compile(
+            "[A-Z@#$][A-Z0-9@#$]{0,7}", Pattern.CASE_INSENSITIVE);
+
+    /** A valid data set name qualifier. */
+    public static final Pattern QUALIFIER_PATTERN = MEMBER_NAME_PATTERN;
+
+    /** Maximum length of a data set name. */
+    public static final int MAX_DATASET_NAME_LENGTH = 44;
+
+    /** Hidden files, editor backups and temporary files. */
+    public static final String[] DEFAULT_EXCLUDES = { "**/.*", "**/.*/**",
+            "**/*~", "**/#*#", "**/*.bak", "**/*.swp", "**/*.tmp" };
+
+    /** Default number of discovered files that can wait for upload. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    /** How long consumers wait before checking for cancellation, in milliseconds. */
+    public static final long CANCEL_CHECK_INTERVAL = 100L;
+
+    /** Marks the end of the scan in the queue. */
+    private static final SourceMember END_OF_SCAN = new SourceMember(null,
+            null, null, null);
+
+    /**
+     * Notified of each folder whose tree is completely scanned.
+     */
+    public interface FolderListener {
+
+        /**
+         * A folder and all its sub folders are scanned and their files
+         * consumed.
+         *
+         * @param folder the folder path relative to the input folder
+         */
+        void scanned(String folder);
+    }
+
+    /** The local folder containing sub folders whose content is to be uploaded. */
+    private final File _inputFolder;
+
+    /** The target z/OS file name prefix. */
+    private final String _remoteFilesPrefix;
+
+    /** Files must match one of these to be uploaded (all files if empty). */
+    private final List < Pattern > _includes = new ArrayList < Pattern >();
+
+    /** Files or folders matching one of these are ignored. */
+    private final List < Pattern > _excludes = new ArrayList < Pattern >();
+
+    /** Folder patterns with their corresponding qualifiers, in order. */
+    private final List < Pattern > _mappingPatterns = new ArrayList < Pattern >();
+
+    /** Qualifiers corresponding to each mapping pattern. */
+    private final List < String > _mappingQualifiers = new ArrayList < String >();
+
+    /** Number of threads listing folders. */
+    private final int _threads;
+
+    /** Discovered files waiting to be uploaded. */
+    private final BlockingQueue < SourceMember > _queue;
+
+    /** Validation errors found so far. */
+    private final List < String > _errors = Collections
+            .synchronizedList(new ArrayList < String >());
+
+    /** Remote names discovered so far, used to detect collisions. */
+    private final ConcurrentHashMap < String, Boolean > _remoteNames =
+        new ConcurrentHashMap < String, Boolean >();
+
+    /** Target PDS names discovered so far. */
+    private final ConcurrentHashMap < String, Boolean > _datasetNames =
+        new ConcurrentHashMap < String, Boolean >();
+
+    /** Number of folders that are queued or being listed. */
+    private final AtomicInteger _pendingFolders = new AtomicInteger();
+
+    /** Per folder, number of folders of its tree queued or being listed. */
+    private final ConcurrentHashMap < String, AtomicInteger > _pendingTrees =
+        new ConcurrentHashMap < String, AtomicInteger >();
+
+    /** Notified of completely scanned folders (may be null). */
+    private FolderListener _folderListener;
+
+    /** Number of files discovered so far. */
+    private final AtomicInteger _discovered = new AtomicInteger();
+
+    /** Lists folders in parallel. */
+    private ExecutorService _executor;
+
+    /** Set once the end of scan marker has been consumed or when cancelled. */
+    private volatile boolean _done;
+
+    /**
+     * Create a scanner.
+     *
+     * @param inputFolder the local folder to scan
+     * @param remoteFilesPrefix the target z/OS file name prefix
+     * @param includes glob patterns of files to upload (null or empty for all)
+     * @param excludes glob patterns of files or folders to ignore (may be null)
+     * @param folderMappings rules mapping local folders to PDS names (may be
+     *            null)
+     * @param threads number of threads listing folders in parallel
+     * @param queueCapacity number of discovered files that can wait for upload
+     */
+    public SourceScanner(final File inputFolder,
+            final String remoteFilesPrefix, final List < String > includes,
+            final List < String > excludes,
+            final List < FolderMapping > folderMappings, final int threads,
+            final int queueCapacity) {
+        _inputFolder = inputFolder;
+        _remoteFilesPrefix = remoteFilesPrefix;
+        if (includes != null) {
+            for (String include : includes) {
+                _includes.add(toPattern(include));
+            }
+        }
+        if (excludes != null) {
+            for (String exclude : excludes) {
+                _excludes.add(toPattern(exclude));
+            }
+        }
+        if (folderMappings != null) {
+            for (FolderMapping folderMapping : folderMappings) {
+                _mappingPatterns.add(toPattern(folderMapping.getFolder()));
+                _mappingQualifiers.add(folderMapping.getQualifier());
+            }
+        }
+        _threads = Math.max(1, threads);
+        _queue = new ArrayBlockingQueue < SourceMember >(Math.max(1,
+                queueCapacity));
+    }
+
+    /**
+     * Start scanning in the background.
+     * <p/>
+     * Discovered files become available from {@link #take()} immediately.
+     */
+    public void start() {
+        _executor = Executors.newFixedThreadPool(_threads);
+        _pendingFolders.incrementAndGet();
+        _executor.execute(new FolderLister(_inputFolder, ""));
+    }
+
+    /**
+     * @param folderListener notified of completely scanned folders, must be
+     *            set before the scan starts
+     */
+    public void setFolderListener(final FolderListener folderListener) {
+        _folderListener = folderListener;
+    }
+
+    /**
+     * Get the next discovered file, waiting for one if necessary.
+     *
+     * @return the next file to upload or null if the scan is over
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public SourceMember take() throws InterruptedException {
+        while (!_done) {
+            SourceMember member = poll(CANCEL_CHECK_INTERVAL,
+                    TimeUnit.MILLISECONDS);
+            if (member != null) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the next discovered file, waiting up to a timeout for one.
+     *
+     * @param timeout how long to wait
+     * @param unit the timeout unit
+     * @return the next file to upload or null if none was discovered in
+     *         time or the scan is over
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public SourceMember poll(final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        if (_done) {
+            return null;
+        }
+        SourceMember member = _queue.poll(timeout, unit);
+        while (member != null) {
+            if (member == END_OF_SCAN) {
+                /* Leave the marker for any other consumer waiting on the queue */
+                _done = true;
+                _queue.offer(END_OF_SCAN);
+                return null;
+            }
+            if (member.getFile() != null) {
+                return member;
+            }
+            /* A folder end marker */
+            if (_folderListener != null) {
+                _folderListener.scanned(member.getFolder());
+            }
+            member = _queue.poll();
+        }
+        return null;
+    }
+
+    /**
+     * @return true once the end of the scan was consumed or the scan was
+     *         cancelled
+     */
+    public boolean isDone() {
+        return _done;
+    }
+
+    /**
+     * Stop scanning. Files not yet consumed are discarded and consumers
+     * waiting for a file get the end of the scan.
+     */
+    public void cancel() {
+        _done = true;
+        if (_executor != null) {
+            _executor.shutdownNow();
+        }
+        _queue.clear();
+        /* Wake up consumers waiting on the queue */
+        _queue.offer(END_OF_SCAN);
+    }
+
+    /**
+     * Scan the whole tree, discarding discovered files, and report invalid
+     * names. This is meant for a scanner used only to validate the tree.
+     *
+     * @return the validation errors
+     * @throws InterruptedException if interrupted while scanning
+     */
+    public List < String > validate() throws InterruptedException {
+        start();
+        while (take() != null) {
+            continue;
+        }
+        return getErrors();
+    }
+
+    /**
+     * @return the validation errors found so far
+     */
+    public List < String > getErrors() {
+        synchronized (_errors) {
+            return new ArrayList < String >(_errors);
+        }
+    }
+
+    /**
+     * @return true if an invalid name was found
+     */
+    public boolean hasErrors() {
+        return _errors.size() > 0;
+    }
+
+    /**
+     * @return the number of valid files discovered so far
+     */
+    public int getDiscoveredCount() {
+        return _discovered.get();
+    }
+
+    /**
+     * @return the target PDS names discovered so far, sorted
+     */
+    public List < String > getDatasetNames() {
+        List < String > names = new ArrayList < String >(_datasetNames
+                .keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Build the PDS name corresponding to a local folder.
+     *
+     * @param folder the local folder path relative to the input folder ('/'
+     *            separated)
+     * @return the PDS name
+     */
+    public String getDatasetName(final String folder) {
+        String qualifier = null;
+        for (int i = 0; i < _mappingPatterns.size(); i++) {
+            if (_mappingPatterns.get(i).matcher(folder).matches()) {
+                qualifier = _mappingQualifiers.get(i);
+                break;
+            }
+        }
+        if (qualifier == null) {
+            qualifier = folder.replace('/', '.');
+        }
+        if (qualifier.length() == 0) {
+            return _remoteFilesPrefix;
+        }
+        return _remoteFilesPrefix + '.' + qualifier;
+    }
+
+    /**
+     * Translates an ant-style glob pattern to a regular expression.
+     *
+     * @param glob the glob pattern
+     * @return a compiled regular expression
+     */
+    public static Pattern toPattern(final String glob) {
+        String normalized = glob.trim().replace('\\', '/');
+        if (normalized.endsWith("/")) {
+            normalized += "**";
+        }
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < normalized.length()) {
+            char c = normalized.charAt(i);
+            if (normalized.startsWith("**/", i)) {
+                sb.append("(?:.*/)?");
+                i += 3;
+            } else if (normalized.startsWith("/**", i)
+                    && i + 3 == normalized.length()) {
+                sb.append("(?:/.*)?");
+                i += 3;
+            } else if (normalized.startsWith("**", i)) {
+                sb.append(".*");
+                i += 2;
+            } else if (c == '*') {
+                sb.append("[^/]*");
+                i++;
+            } else if (c == '?') {
+                sb.append("[^/]");
+                i++;
+            } else {
+                sb.append(Pattern.quote(Character.toString(c)));
+                i++;
+            }
+        }
+        return Pattern.compile(sb.toString());
+    }
+
+    /**
+     * @param path a path relative to the input folder
+     * @return true if the path matches one of the exclude patterns
+     */
+    protected boolean isExcluded(final String path) {
+        for (Pattern exclude : _excludes) {
+            if (exclude.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param path a path relative to the input folder
+     * @return true if the path matches one of the include patterns or there
+     *         are no include patterns
+     */
+    protected boolean isIncluded(final String path) {
+        if (_includes.size() == 0) {
+            return true;
+        }
+        for (Pattern include : _includes) {
+            if (include.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Map a file to a PDS member and check names are valid for z/OS.
+     *
+     * @param file the local file
+     * @param folder the local folder path relative to the input folder
+     * @return the corresponding member or null if names are invalid
+     */
+    protected SourceMember toMember(final File file, final String folder) {
+        String path = folder + '/' + file.getName();
+        String memberName = file.getName();
+        if (!MEMBER_NAME_PATTERN.matcher(memberName).matches()) {
+            _errors.add("Invalid member name " + memberName + " for " + path);
+            return null;
+        }
+        String datasetName = getDatasetName(folder);
+        if (datasetName.length() > MAX_DATASET_NAME_LENGTH) {
+            _errors.add("Data set name " + datasetName + " for " + path
+                    + " is longer than " + MAX_DATASET_NAME_LENGTH
+                    + " characters");
+            return null;
+        }
+        for (String qualifier : datasetName.split("\\.", -1)) {
+            if (!QUALIFIER_PATTERN.matcher(qualifier).matches()) {
+                _errors.add("Invalid data set name " + datasetName
+                        + " for " + path);
+                return null;
+            }
+        }
+        SourceMember member = new SourceMember(file, folder, datasetName,
+                memberName);
+        if (_remoteNames.putIfAbsent(member.getRemoteName().toUpperCase(),
+                Boolean.TRUE) != null) {
+            _errors.add("Several files map to " + member.getRemoteName()
+                    + ", including " + path);
+            return null;
+        }
+        _datasetNames.putIfAbsent(datasetName, Boolean.TRUE);
+        return member;
+    }
+
+    /**
+     * Record a folder about to be listed in the trees it belongs to.
+     *
+     * @param path the folder path relative to the input folder
+     */
+    private void addPendingFolder(final String path) {
+        _pendingFolders.incrementAndGet();
+        for (String tree = path; tree.length() > 0; tree = getParent(tree)) {
+            AtomicInteger pending = _pendingTrees.get(tree);
+            if (pending == null) {
+                pending = new AtomicInteger();
+                AtomicInteger previous = _pendingTrees.putIfAbsent(tree,
+                        pending);
+                if (previous != null) {
+                    pending = previous;
+                }
+            }
+            pending.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record a folder listed and queue an end marker for each tree that is
+     * now completely listed, deepest first.
+     *
+     * @param path the folder path relative to the input folder
+     * @throws InterruptedException if interrupted while queuing
+     */
+    private void removePendingFolder(final String path)
+            throws InterruptedException {
+        for (String tree = path; tree.length() > 0; tree = getParent(tree)) {
+            /* A tree count cannot go up again once it reached zero */
+            if (_pendingTrees.get(tree).decrementAndGet() == 0) {
+                _pendingTrees.remove(tree);
+                _queue.put(new SourceMember(null, tree, null, null));
+            }
+        }
+    }
+
+    /**
+     * @param path a folder path relative to the input folder
+     * @return the parent folder path, empty for the input folder itself
+     */
+    protected static String getParent(final String path) {
+        int slash = path.lastIndexOf('/');
+        return (slash > -1) ? path.substring(0, slash) : "";
+    }
+
+    /**
+     * Lists a single folder. Files are queued for upload and sub folders are
+     * handed back to the pool.
+     */
+    private class FolderLister implements Runnable {
+
+        /** The folder to list. */
+        private final File _folder;
+
+        /** The folder path relative to the input folder. */
+        private final String _path;
+
+        /**
+         * @param folder the folder to list
+         * @param path the folder path relative to the input folder
+         */
+        FolderLister(final File folder, final String path) {
+            _folder = folder;
+            _path = path;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+            try {
+                File[] children = _folder.listFiles();
+                if (children == null) {
+                    return;
+                }
+                for (File child : children) {
+                    String childPath = (_path.length() == 0) ? child
+                            .getName() : _path + '/' + child.getName();
+                    if (isExcluded(childPath)) {
+                        continue;
+                    }
+                    if (child.isDirectory()) {
+                        addPendingFolder(childPath);
+                        try {
+                            _executor.execute(new FolderLister(child,
+                                    childPath));
+                        } catch (RejectedExecutionException e) {
+                            /* Scan was cancelled */
+                            _pendingFolders.decrementAndGet();
+                            return;
+                        }
+                    } else if (_path.length() > 0 && child.isFile()
+                            && isIncluded(childPath)) {
+                        SourceMember member = toMember(child, _path);
+                        if (member != null) {
+                            _discovered.incrementAndGet();
+                            _queue.put(member);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    removePendingFolder(_path);
+                    if (_pendingFolders.decrementAndGet() == 0) {
+                        _executor.shutdown();
+                        _queue.put(END_OF_SCAN);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Applies a set of token buckets, for instance one for the host and one for
+ * the whole JVM, to the streams of a transfer.
+ * <p/>
+ * The time each thread spends waiting for the buckets is accumulated, so
+ * that transfer durations can be measured without it.
+ *
+ */
+public class Throttle {
+
+    /** A throttle that does not limit anything. */
+    public static final Throttle NONE = new Throttle();
+
+    /** Time each thread spent waiting for buckets, in nanoseconds. */
+    private static final ThreadLocal < long[] > WAITED = new ThreadLocal < long[] >() {
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    /** The buckets every byte must go through. */
+    private final TokenBucket[] _buckets;
+
+    /**
+     * Create a throttle.
+     *
+     * @param buckets the buckets every byte must go through
+     */
+    public Throttle(final TokenBucket... buckets) {
+        _buckets = buckets;
+    }
+
+    /**
+     * Wait until all buckets let a number of bytes through.
+     *
+     * @param bytes the number of bytes
+     * @throws IOException if interrupted while waiting
+     */
+    public void acquire(final long bytes) throws IOException {
+        long start = System.nanoTime();
+        try {
+            for (TokenBucket bucket : _buckets) {
+                bucket.acquire(bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        } finally {
+            WAITED.get()[0] += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return the time the current thread spent waiting for the buckets of
+     *         any throttle so far, in nanoseconds
+     */
+    public static long getWaitedNanos() {
+        return WAITED.get()[0];
+    }
+
+    /**
+     * @param is an input stream
+     * @return the stream throttled, or the stream itself if there are no
+     *         buckets
+     */
+    public InputStream wrap(final InputStream is) {
+        if (_buckets.length == 0) {
+            return is;
+        }
+        return new FilterInputStream(is) {
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    acquire(1);
+                }
+                return b;
+            }
+
+            public int read(final byte[] b, final int off, final int len)
+                    throws IOException {
+                int count = super.read(b, off, len);
+                if (count > 0) {
+                    acquire(count);
+                }
+                return count;
+            }
+        };
+    }
+
+    /**
+     * @param os an output stream
+     * @return the stream throttled, or the stream itself if there are no
+     *         buckets
+     */
+    public OutputStream wrap(final OutputStream os) {
+        if (_buckets.length == 0) {
+            return os;
+        }
+        return new FilterOutputStream(os) {
+            public void write(final int b) throws IOException {
+                acquire(1);
+                out.write(b);
+            }
+
+            public void write(final byte[] b, final int off, final int len)
+                    throws IOException {
+                acquire(len);
+                out.write(b, off, len);
+            }
+        };
+    }
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A token bucket limiting the number of bytes per second that go through it.
+ * <p/>
+ * The bucket fills at the configured rate up to a burst capacity. Each byte
+ * transferred takes a token. When the bucket is empty, callers wait for it
+ * to refill. Since the bucket starts full, transfers smaller than the burst
+ * capacity go through immediately.
+ * <p/>
+ * A bucket with a rate of zero does not limit anything but still counts the
+ * bytes that go through it, which gives the achieved rate.
+ *
+ */
+public class TokenBucket {
+
+    /** Buckets shared by all executions in this JVM, by name. */
+    private static final Map < String, TokenBucket > SHARED =
+        new HashMap < String, TokenBucket >();
+
+    /** Bytes per second, zero or negative for no limit. */
+    private final long _rate;
+
+    /** Maximum number of tokens. */
+    private final long _capacity;
+
+    /** Tokens available, negative if callers are waiting. */
+    private double _tokens;
+
+    /** Last time tokens were added. */
+    private long _lastRefill;
+
+    /** Bytes that went through the bucket. */
+    private long _totalBytes;
+
+    /** Time of the first transfer. */
+    private long _firstTransfer;
+
+    /** Time of the last transfer. */
+    private long _lastTransfer;
+
+    /**
+     * Create a bucket.
+     *
+     * @param rate bytes per second, zero or negative for no limit
+     * @param capacity burst capacity in bytes
+     */
+    public TokenBucket(final long rate, final long capacity) {
+        _rate = rate;
+        _capacity = Math.max(1L, capacity);
+        _tokens = _capacity;
+        _lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Get a bucket shared by all executions in this JVM.
+     * <p/>
+     * The first request for a name creates the bucket, later requests
+     * with the same name, rate and capacity get the same bucket. A request
+     * with a different rate or capacity replaces it.
+     *
+     * @param name the bucket name
+     * @param rate bytes per second, zero or negative for no limit
+     * @param capacity burst capacity in bytes
+     * @return the shared bucket
+     */
+    public static TokenBucket getShared(final String name, final long rate,
+            final long capacity) {
+        synchronized (SHARED) {
+            TokenBucket bucket = SHARED.get(name);
+            if (bucket == null || bucket._rate != rate
+                    || bucket._capacity != Math.max(1L, capacity)) {
+                bucket = new TokenBucket(rate, capacity);
+                SHARED.put(name, bucket);
+            }
+            return bucket;
+        }
+    }
+
+    /**
+     * Take tokens for a number of bytes, waiting if the bucket is empty.
+     *
+     * @param bytes the number of bytes about to be transferred
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(final long bytes) throws InterruptedException {
+        long waitNanos = 0;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (_totalBytes == 0) {
+                _firstTransfer = now;
+            }
+            _totalBytes += bytes;
+            _lastTransfer = now;
+            if (_rate <= 0) {
+                return;
+            }
+            _tokens = Math.min(_capacity, _tokens + (now - _lastRefill)
+                    * _rate / 1e9);
+            _lastRefill = now;
+            _tokens -= bytes;
+            if (_tokens < 0) {
+                waitNanos = (long) (-_tokens * 1e9 / _rate);
+                _lastTransfer += waitNanos;
+            }
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+        }
+    }
+
+    /**
+     * @return the rate limit in bytes per second, zero or negative for none
+     */
+    public long getRate() {
+        return _rate;
+    }
+
+    /**
+     * @return the number of bytes that went through the bucket
+     */
+    public synchronized long getTotalBytes() {
+        return _totalBytes;
+    }
+
+    /**
+     * @return the achieved rate, in bytes per second, between the first and
+     *         the last transfer or -1 if that cannot be measured
+     */
+    public synchronized long getAchievedRate() {
+        long elapsed = _lastTransfer - _firstTransfer;
+        if (_totalBytes == 0 || elapsed <= 0) {
+            return -1L;
+        }
+        return (long) (_totalBytes * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,289 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records timed spans of FTP operations and writes them in the Chrome
+ * trace-event JSON format, which Perfetto and chrome://tracing display as a
+ * timeline with one track per FTP session.
+ * <p/>
+ * Spans are stored in arrays allocated once, used as a ring buffer: when
+ * more spans are recorded than the buffer holds, the oldest ones are
+ * overwritten. Recording a span does not allocate memory.
+ * <p/>
+ * Recording and writing share the recorder lock. Once written, the recorder
+ * is closed and spans ended later, by operations still running, are ignored.
+ * <p/>
+ * The {@link #DISABLED} recorder ignores everything, so that code can trace
+ * unconditionally at the cost of a field test.
+ *
+ */
+public class TraceRecorder {
+
+    /** A recorder that records nothing. */
+    public static final TraceRecorder DISABLED = new TraceRecorder(0);
+
+    /** Whether spans are recorded. */
+    private final boolean _enabled;
+
+    /** Number of spans the ring buffer holds. */
+    private final int _capacity;
+
+    /** Time origin for all spans. */
+    private final long _origin;
+
+    /** Next slot to use, modulo capacity. */
+    private long _next;
+
+    /** Set once the spans are written, later spans are ignored. */
+    private boolean _closed;
+
+    /** Span start times in nanoseconds. */
+    private final long[] _starts;
+
+    /** Span durations in nanoseconds. */
+    private final long[] _durations;
+
+    /** Span tracks. */
+    private final int[] _tracks;
+
+    /** Span names. */
+    private final String[] _names;
+
+    /** Number of bytes transferred by each span (negative if none). */
+    private final long[] _bytes;
+
+    /** Remote resource of each span (may be null). */
+    private final String[] _resources;
+
+    /** JES job ID of each span (may be null). */
+    private final String[] _jobIds;
+
+    /** Track names, the track number is the index plus one. */
+    private final List < String > _trackNames = new ArrayList < String >();
+
+    /**
+     * Create a recorder.
+     *
+     * @param capacity number of spans the ring buffer holds, zero to disable
+     *            recording
+     */
+    public TraceRecorder(final int capacity) {
+        _enabled = capacity > 0;
+        _capacity = capacity;
+        _origin = System.nanoTime();
+        _starts = new long[capacity];
+        _durations = new long[capacity];
+        _tracks = new int[capacity];
+        _names = new String[capacity];
+        _bytes = new long[capacity];
+        _resources = new String[capacity];
+        _jobIds = new String[capacity];
+    }
+
+    /**
+     * @return true if spans are recorded
+     */
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    /**
+     * Register a new track.
+     *
+     * @param name the track name as it appears in the timeline
+     * @return the track number
+     */
+    public synchronized int newTrack(final String name) {
+        if (!_enabled) {
+            return 0;
+        }
+        _trackNames.add(name);
+        return _trackNames.size();
+    }
+
+    /**
+     * Mark the beginning of a span.
+     *
+     * @return the span start time to pass to {@link #end}
+     */
+    public long begin() {
+        return _enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Record a span that ends now.
+     *
+     * @param track the track number
+     * @param name the operation name
+     * @param start the span start time returned by {@link #begin()}
+     * @param bytes number of bytes transferred or a negative value if none
+     * @param resource the remote resource (may be null)
+     * @param jobId the JES job ID (may be null)
+     */
+    public void end(final int track, final String name, final long start,
+            final long bytes, final String resource, final String jobId) {
+        if (!_enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (_closed) {
+                return;
+            }
+            int slot = (int) (_next++ % _capacity);
+            _starts[slot] = start;
+            _durations[slot] = now - start;
+            _tracks[slot] = track;
+            _names[slot] = name;
+            _bytes[slot] = bytes;
+            _resources[slot] = resource;
+            _jobIds[slot] = jobId;
+        }
+    }
+
+    /**
+     * Record a span that ends now and has no arguments.
+     *
+     * @param track the track number
+     * @param name the operation name
+     * @param start the span start time returned by {@link #begin()}
+     */
+    public void end(final int track, final String name, final long start) {
+        end(track, name, start, -1L, null, null);
+    }
+
+    /**
+     * @return the number of spans currently held
+     */
+    public synchronized int size() {
+        return (int) Math.min(_next, _capacity);
+    }
+
+    /**
+     * Write all spans held in the trace-event JSON format.
+     * <p/>
+     * Should be called once all traced operations are over. Spans ended
+     * afterwards are ignored.
+     *
+     * @param file the output file
+     * @throws IOException if file cannot be written
+     */
+    public void write(final File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        try {
+            write(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write all spans held in the trace-event JSON format and close the
+     * recorder.
+     *
+     * @param writer where to write
+     * @throws IOException if writing fails
+     */
+    public synchronized void write(final Writer writer) throws IOException {
+        _closed = true;
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (int i = 0; i < _trackNames.size(); i++) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writer.write("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+            writer.write(Integer.toString(i + 1));
+            writer.write(",\"args\":{\"name\":");
+            writeString(writer, _trackNames.get(i));
+            writer.write("}}");
+        }
+        long oldest = Math.max(0L, _next - _capacity);
+        for (long i = oldest; i < _next; i++) {
+            int slot = (int) (i % _capacity);
+            if (_names[slot] == null) {
+                continue;
+            }
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writer.write("\n{\"name\":");
+            writeString(writer, _names[slot]);
+            writer.write(",\"cat\":\"ftp\",\"ph\":\"X\",\"pid\":1,\"tid\":");
+            writer.write(Integer.toString(_tracks[slot]));
+            writer.write(",\"ts\":");
+            writer.write(Long.toString((_starts[slot] - _origin) / 1000L));
+            writer.write(",\"dur\":");
+            writer.write(Long.toString(_durations[slot] / 1000L));
+            writer.write(",\"args\":{");
+            boolean firstArg = true;
+            if (_bytes[slot] >= 0) {
+                writer.write("\"bytes\":");
+                writer.write(Long.toString(_bytes[slot]));
+                firstArg = false;
+            }
+            if (_resources[slot] != null) {
+                writer.write(firstArg ? "\"resource\":" : ",\"resource\":");
+                writeString(writer, _resources[slot]);
+                firstArg = false;
+            }
+            if (_jobIds[slot] != null) {
+                writer.write(firstArg ? "\"jobId\":" : ",\"jobId\":");
+                writeString(writer, _jobIds[slot]);
+            }
+            writer.write("}}");
+        }
+        writer.write("\n]}\n");
+    }
+
+    /**
+     * Write a JSON string literal.
+     *
+     * @param writer where to write
+     * @param value the string value
+     * @throws IOException if writing fails
+     */
+    protected static void writeString(final Writer writer, final String value)
+            throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                String hex = Integer.toHexString(c);
+                writer.write("\\u");
+                writer.write("0000".substring(hex.length()));
+                writer.write(hex);
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+}
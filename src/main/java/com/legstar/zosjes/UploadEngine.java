@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The upload stage of the pipeline. Uploads the members produced by the
+ * previous stage over several concurrent sessions.
+ * <p/>
+ * There is one worker thread per potential session. Each worker opens its
+ * own session the first time it gets to upload. The number of uploads that
+ * are actually in progress at any time is decided by a
+ * {@link ConcurrencyController} which adapts it to what the server can take.
+ * Workers above the current limit close their session, so that the server
+ * actually gets fewer connections, and open a new one when the limit grows
+ * again. Time spent waiting for bandwidth limits is not counted in transfer
+ * latencies.
+ * <p/>
+ * Uploads rejected because the server is congested (421 and 425 FTP replies,
+ * 429 and 503 HTTP statuses) are retried on a fresh session after a short
+ * pause. Any other failure stops the whole run.
+ *
+ */
+public class UploadEngine {
+
+    /** Number of times an upload is attempted when the server is congested. */
+    public static final int MAX_ATTEMPTS = 3;
+
+    /** Pause before retrying, multiplied by the attempt number. */
+    public static final long RETRY_PAUSE = 1000L;
+
+    /** FTP reply codes and HTTP statuses that signal a congested server. */
+    public static final String[] CONGESTION_REPLY_CODES = { "421", "425",
+            "429", "503" };
+
+    /**
+     * Notified of each upload as it starts and as it completes.
+     */
+    public interface Listener {
+
+        /**
+         * Called from a worker thread before a member is uploaded, with the
+         * session that uploads it. Errors are handled as upload errors.
+         *
+         * @param member the member about to be uploaded
+         * @param session the session uploading the member
+         * @throws IOException if the member cannot be uploaded
+         */
+        void uploading(SourceMember member, ZosTransport session)
+                throws IOException;
+
+        /**
+         * Called from a worker thread once a member has been uploaded.
+         *
+         * @param member the uploaded member
+         */
+        void uploaded(SourceMember member);
+    }
+
+    /** Opens sessions. */
+    private final SessionFactory _sessions;
+
+    /** Number of worker threads, which is the maximum number of sessions. */
+    private final int _maxSessions;
+
+    /** Decides how many uploads can proceed concurrently. */
+    private final ConcurrencyController _controller;
+
+    /** The maven logger. */
+    private final Log _log;
+
+    /** The first fatal error encountered by any worker. */
+    private IOException _failure;
+
+    /**
+     * Create an upload engine.
+     *
+     * @param sessions opens sessions
+     * @param minSessions smallest number of concurrent sessions
+     * @param maxSessions largest number of concurrent sessions
+     * @param log the maven logger
+     */
+    public UploadEngine(final SessionFactory sessions, final int minSessions,
+            final int maxSessions, final Log log) {
+        _sessions = sessions;
+        _controller = new ConcurrencyController(minSessions, maxSessions, log);
+        _maxSessions = Math.max(1, Math.max(minSessions, maxSessions));
+        _log = log;
+    }
+
+    /**
+     * Upload everything the previous stage produces and return when that
+     * stage is exhausted and all uploads are complete.
+     *
+     * @param source a started stage producing members
+     * @param listener notified of each completed upload (may be null)
+     * @throws IOException if an upload fails
+     * @throws InterruptedException if interrupted while waiting for workers
+     */
+    public void run(final MemberSource source, final Listener listener)
+            throws IOException, InterruptedException {
+        List < Thread > workers = new ArrayList < Thread >();
+        for (int i = 0; i < _maxSessions; i++) {
+            String name = "zosupload-" + i;
+            Thread worker = new Thread(new Worker(i, source, listener,
+                    _sessions.getTracer().newTrack(name)), name);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            source.cancel();
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            if (_failure != null) {
+                throw _failure;
+            }
+        }
+    }
+
+    /**
+     * @return the current number of concurrent sessions allowed
+     */
+    public int getConcurrency() {
+        return _controller.getLimit();
+    }
+
+    /**
+     * The FTP client reports a 421 reply, whether to connect, login or any
+     * other command, by closing the connection.
+     *
+     * @param e an FTP error
+     * @return true if the error means the server is congested
+     */
+    public static boolean isCongestion(final IOException e) {
+        if (e instanceof FTPConnectionClosedException) {
+            return true;
+        }
+        String message = e.getMessage();
+        if (message == null) {
+            return false;
+        }
+        for (String code : CONGESTION_REPLY_CODES) {
+            if (message.startsWith(code)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record a fatal error and stop the previous stage so that all workers
+     * end.
+     *
+     * @param source the stage producing members
+     * @param e the error
+     */
+    private synchronized void fail(final MemberSource source,
+            final IOException e) {
+        if (_failure == null) {
+            _failure = e;
+        }
+        source.cancel();
+        _controller.close();
+    }
+
+    /**
+     * @return true if a worker has failed
+     */
+    private synchronized boolean hasFailed() {
+        return _failure != null;
+    }
+
+    /**
+     * Takes members from the previous stage and uploads them over its own
+     * session.
+     */
+    private class Worker implements Runnable {
+
+        /** The worker slot, it may upload while below the limit. */
+        private final int _slot;
+
+        /** The stage producing members. */
+        private final MemberSource _source;
+
+        /** Notified of each completed upload. */
+        private final Listener _listener;
+
+        /** The timeline track of this worker's sessions. */
+        private final int _track;
+
+        /** This worker's session, opened on first use. */
+        private ZosTransport _session;
+
+        /**
+         * @param slot the worker slot, from zero
+         * @param source the stage producing members
+         * @param listener notified of each completed upload
+         * @param track the timeline track of this worker's sessions
+         */
+        Worker(final int slot, final MemberSource source,
+                final Listener listener, final int track) {
+            _slot = slot;
+            _source = source;
+            _listener = listener;
+            _track = track;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+            try {
+                while (!hasFailed()) {
+                    if (!_controller.isAllowed(_slot)) {
+                        /* Above the limit, leave the server alone */
+                        close();
+                        if (!_controller.awaitSlot(_slot)) {
+                            break;
+                        }
+                        continue;
+                    }
+                    SourceMember member = _source.take();
+                    if (member == null) {
+                        /* Release the workers waiting for their slot */
+                        _controller.close();
+                        break;
+                    }
+                    upload(member);
+                    if (_listener != null) {
+                        _listener.uploaded(member);
+                    }
+                }
+            } catch (IOException e) {
+                fail(_source, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Upload a member, retrying if the server is congested.
+         *
+         * @param member the member to upload
+         * @throws IOException if upload fails
+         * @throws InterruptedException if interrupted while waiting
+         */
+        private void upload(final SourceMember member) throws IOException,
+                InterruptedException {
+            for (int attempt = 1;; attempt++) {
+                long ticket = _controller.acquire();
+                try {
+                    if (_session == null) {
+                        _session = _sessions.openSession(_track);
+                    }
+                    if (_listener != null) {
+                        _listener.uploading(member, _session);
+                    }
+                    /* Login and throttling are not part of the transfer latency */
+                    long start = System.nanoTime();
+                    long throttled = Throttle.getWaitedNanos();
+                    _log.info("Uploading: " + member);
+                    long bytes;
+                    if (member.getContent() == null) {
+                        _session.upload(member.getRemoteName(), member
+                                .getFile());
+                        bytes = member.getFile().length();
+                    } else {
+                        _session.upload(member.getRemoteName(), member
+                                .getContent());
+                        bytes = member.getContent().length;
+                    }
+                    _controller.success(ticket, bytes, System.nanoTime()
+                            - start - (Throttle.getWaitedNanos() - throttled));
+                    return;
+                } catch (IOException e) {
+                    /* On errors the server drops the session */
+                    close();
+                    if (!isCongestion(e) || attempt >= MAX_ATTEMPTS) {
+                        _controller.failure();
+                        throw e;
+                    }
+                    _controller.congestion(ticket, e.getMessage());
+                    _log.warn("Upload of " + member + " will be retried: "
+                            + e.getMessage());
+                    Thread.sleep(RETRY_PAUSE * attempt);
+                }
+            }
+        }
+
+        /**
+         * Close this worker's session if any.
+         */
+        private void close() {
+            if (_session != null) {
+                try {
+                    _session.close();
+                } catch (IOException e) {
+                    // Just ignore. mainframe will wipe up connection anyway
+                }
+                _session = null;
+            }
+        }
+    }
+}
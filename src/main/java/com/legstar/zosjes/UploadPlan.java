@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The uploads registered by the modules of a reactor build, waiting to be
+ * run together.
+ * <p/>
+ * Plans are shared JVM-wide, by key, so that the executions of the plugin
+ * in each module find the same plan.
+ *
+ */
+public class UploadPlan {
+
+    /** Plans shared in the JVM, by key. */
+    private static final Map < String, UploadPlan > SHARED_PLANS = new HashMap < String, UploadPlan >();
+
+    /** Registered modules, in registration order. */
+    private final List < ModuleUpload > _modules = new ArrayList < ModuleUpload >();
+
+    /**
+     * Get a plan shared in the JVM, creating it if necessary.
+     *
+     * @param key identifies the plan
+     * @return the plan
+     */
+    public static UploadPlan getShared(final String key) {
+        synchronized (SHARED_PLANS) {
+            UploadPlan plan = SHARED_PLANS.get(key);
+            if (plan == null) {
+                plan = new UploadPlan();
+                SHARED_PLANS.put(key, plan);
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * Take a shared plan out of the JVM so that it runs only once.
+     *
+     * @param key identifies the plan
+     * @return the plan, empty if nothing was registered
+     */
+    public static UploadPlan remove(final String key) {
+        synchronized (SHARED_PLANS) {
+            UploadPlan plan = SHARED_PLANS.remove(key);
+            return (plan == null) ? new UploadPlan() : plan;
+        }
+    }
+
+    /**
+     * Register a module upload. A module may register several uploads, one
+     * per execution of the plugin. An upload registered again, with the same
+     * module, input folder and prefix, replaces the previous registration,
+     * which happens when a build is repeated in the same JVM.
+     *
+     * @param module the module upload
+     */
+    public synchronized void add(final ModuleUpload module) {
+        for (int i = 0; i < _modules.size(); i++) {
+            if (isSameUpload(_modules.get(i), module)) {
+                _modules.set(i, module);
+                return;
+            }
+        }
+        _modules.add(module);
+    }
+
+    /**
+     * @param first a module upload
+     * @param second another module upload
+     * @return true if both upload the same folder of the same module to the
+     *         same prefix
+     */
+    private static boolean isSameUpload(final ModuleUpload first,
+            final ModuleUpload second) {
+        return first.getName().equals(second.getName())
+                && first.getInputFolder().equals(second.getInputFolder())
+                && (first.getRemoteFilesPrefix() == null
+                        ? second.getRemoteFilesPrefix() == null
+                        : first.getRemoteFilesPrefix().equals(
+                                second.getRemoteFilesPrefix()));
+    }
+
+    /**
+     * @return the registered modules, in registration order
+     */
+    public synchronized List < ModuleUpload > getModules() {
+        return new ArrayList < ModuleUpload >(_modules);
+    }
+}
@@ -0,0 +1,423 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Tracks, for each module, the members discovered and uploaded so far, so
+ * that jobs can be submitted as soon as their inputs are on z/OS.
+ * <p/>
+ * Members are identified by their local path, relative to the module input
+ * folder, and uploads by remote name. A member whose remote name was
+ * uploaded by another module counts as uploaded.
+ * <p/>
+ * A job that declares its inputs only waits for the folders holding them to
+ * be scanned, not for the whole module tree.
+ * <p/>
+ * A waiting job keeps the remote names of its inputs that are not uploaded
+ * yet, so that each upload or discovery only updates the jobs it concerns
+ * and jobs are woken up when they have nothing left to wait for.
+ *
+ */
+public class UploadTracker {
+
+    /** Per module, the remote names of discovered members by local path. */
+    private final List < Map < String, String > > _discovered = new ArrayList < Map < String, String > >();
+
+    /** Per module, whether its scan is complete. */
+    private final boolean[] _scanned;
+
+    /** Per module, the local paths of the folders whose tree is scanned. */
+    private final List < Set < String > > _scannedFolders = new ArrayList < Set < String > >();
+
+    /** Upper case remote names of the members uploaded so far. */
+    private final Set < String > _uploaded = new HashSet < String >();
+
+    /** Jobs waiting for their inputs. */
+    private final List < JobInputs > _waiting = new ArrayList < JobInputs >();
+
+    /** Set once no more uploads are expected. */
+    private boolean _closed;
+
+    /**
+     * Create a tracker.
+     *
+     * @param modules the number of modules
+     */
+    public UploadTracker(final int modules) {
+        _scanned = new boolean[modules];
+        for (int i = 0; i < modules; i++) {
+            _discovered.add(new LinkedHashMap < String, String >());
+            _scannedFolders.add(new HashSet < String >());
+        }
+    }
+
+    /**
+     * Record a discovered member, including one that is not uploaded
+     * because another module uploads the same.
+     *
+     * @param module the module index
+     * @param member the member
+     */
+    public synchronized void discovered(final int module,
+            final SourceMember member) {
+        String path = getPath(member);
+        String remoteName = member.getRemoteName().toUpperCase();
+        _discovered.get(module).put(path, remoteName);
+        if (!_uploaded.contains(remoteName)) {
+            for (JobInputs job : _waiting) {
+                if (job.getModule() == module && job.matches(path)) {
+                    job.getPending().add(remoteName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record that the scan of a module is complete.
+     *
+     * @param module the module index
+     */
+    public synchronized void scanned(final int module) {
+        _scanned[module] = true;
+        notifyAll();
+    }
+
+    /**
+     * Record that a folder of a module and all its sub folders are scanned.
+     *
+     * @param module the module index
+     * @param folder the folder path relative to the input folder
+     */
+    public synchronized void scanned(final int module, final String folder) {
+        _scannedFolders.get(module).add(folder);
+        notifyAll();
+    }
+
+    /**
+     * Record an uploaded member.
+     *
+     * @param member the member
+     */
+    public synchronized void uploaded(final SourceMember member) {
+        String remoteName = member.getRemoteName().toUpperCase();
+        if (!_uploaded.add(remoteName)) {
+            return;
+        }
+        boolean released = false;
+        for (JobInputs job : _waiting) {
+            if (job.getPending().remove(remoteName)
+                    && job.getPending().size() == 0) {
+                released = true;
+            }
+        }
+        if (released) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Record that no more uploads are expected, because they are all done
+     * or because they failed. Waiting jobs are released.
+     */
+    public synchronized void close() {
+        _closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Wait for the scan of a module folder to complete.
+     *
+     * @param module the module index
+     * @param folder the folder path relative to the input folder, empty for
+     *            the whole module
+     * @return false if the tracker was closed before the scan completed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitScanned(final int module,
+            final String folder) throws InterruptedException {
+        while (!isScanned(module, folder)) {
+            if (_closed) {
+                return false;
+            }
+            wait();
+        }
+        return true;
+    }
+
+    /**
+     * Wait for a job inputs to be uploaded. The job own member, if it was
+     * discovered, must be uploaded as well.
+     *
+     * @param module the module index
+     * @param inputs glob patterns of the files or folders the job depends
+     *            on, or null if it depends on all members of the module
+     * @param jclPath the local path of the job member
+     * @return false if the tracker was closed before the inputs were
+     *         uploaded
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitUploaded(final int module,
+            final List < String > inputs, final String jclPath)
+            throws InterruptedException {
+        JobInputs job = collectPending(new JobInputs(module, inputs, jclPath));
+        _waiting.add(job);
+        try {
+            while (!isUploaded(job)) {
+                if (_closed) {
+                    return false;
+                }
+                wait();
+            }
+            return true;
+        } finally {
+            _waiting.remove(job);
+        }
+    }
+
+    /**
+     * @param module the module index
+     * @param inputs glob patterns of the files or folders the job depends
+     *            on, or null if it depends on all members of the module
+     * @param jclPath the local path of the job member
+     * @return true if the folders that may hold the matching members are
+     *         scanned and all matching members are uploaded
+     */
+    protected synchronized boolean isUploaded(final int module,
+            final List < String > inputs, final String jclPath) {
+        return isUploaded(collectPending(new JobInputs(module, inputs,
+                jclPath)));
+    }
+
+    /**
+     * @param job a job with its pending inputs
+     * @return true if the folders that may hold the job inputs are scanned
+     *         and none of its inputs is pending
+     */
+    private boolean isUploaded(final JobInputs job) {
+        if (job.getPending().size() > 0) {
+            return false;
+        }
+        if (job.getBaseFolders() == null) {
+            return _scanned[job.getModule()];
+        }
+        for (String folder : job.getBaseFolders()) {
+            if (!isScanned(job.getModule(), folder)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Record the inputs of a job that are discovered and not uploaded yet.
+     *
+     * @param job a job
+     * @return the job
+     */
+    private JobInputs collectPending(final JobInputs job) {
+        for (Map.Entry < String, String > entry : _discovered.get(
+                job.getModule()).entrySet()) {
+            if (job.matches(entry.getKey())
+                    && !_uploaded.contains(entry.getValue())) {
+                job.getPending().add(entry.getValue());
+            }
+        }
+        return job;
+    }
+
+    /**
+     * @param module the module index
+     * @param folder a folder path relative to the input folder, empty for
+     *            the whole module
+     * @return true if the folder, or a folder containing it, is completely
+     *         scanned
+     */
+    protected synchronized boolean isScanned(final int module,
+            final String folder) {
+        if (_scanned[module]) {
+            return true;
+        }
+        Set < String > scannedFolders = _scannedFolders.get(module);
+        for (String tree = folder; tree.length() > 0; tree = SourceScanner
+                .getParent(tree)) {
+            if (scannedFolders.contains(tree)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param module the module index
+     * @param folder a local folder path relative to the input folder
+     * @return the names of the files discovered in that folder, in discovery
+     *         order
+     */
+    public synchronized List < String > getFileNames(final int module,
+            final String folder) {
+        List < String > names = new ArrayList < String >();
+        for (String path : _discovered.get(module).keySet()) {
+            int slash = path.lastIndexOf('/');
+            if (slash > -1 && path.substring(0, slash).equals(folder)) {
+                names.add(path.substring(slash + 1));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the number of distinct members discovered and not uploaded yet
+     */
+    public synchronized int getPendingCount() {
+        Set < String > pending = new HashSet < String >();
+        for (Map < String, String > discovered : _discovered) {
+            pending.addAll(discovered.values());
+        }
+        pending.removeAll(_uploaded);
+        return pending.size();
+    }
+
+    /**
+     * @param member a member
+     * @return the local path of the member, relative to its input folder
+     */
+    protected static String getPath(final SourceMember member) {
+        String name = member.getFile().getName();
+        return (member.getFolder().length() == 0) ? name : member.getFolder()
+                + '/' + name;
+    }
+
+    /**
+     * @param input a glob pattern of files or folders
+     * @return the deepest folder holding all the paths the pattern matches,
+     *         empty if they may be anywhere in the tree
+     */
+    protected static String getBaseFolder(final String input) {
+        String normalized = input.trim().replace('\\', '/');
+        int wildcard = normalized.length();
+        for (int i = 0; i < normalized.length(); i++) {
+            if (normalized.charAt(i) == '*' || normalized.charAt(i) == '?') {
+                wildcard = i;
+                break;
+            }
+        }
+        if (wildcard == normalized.length()) {
+            /* A plain path, either a folder or a file */
+            return (normalized.endsWith("/")) ? normalized.substring(0,
+                    normalized.length() - 1) : normalized;
+        }
+        return SourceScanner.getParent(normalized.substring(0, wildcard));
+    }
+
+    /**
+     * @param inputs patterns matching files or folders
+     * @param path a local path relative to the input folder
+     * @return true if a pattern matches the path or the folder it is in
+     */
+    protected static boolean matches(final List < Pattern > inputs,
+            final String path) {
+        int slash = path.lastIndexOf('/');
+        String folder = (slash > -1) ? path.substring(0, slash) : "";
+        for (Pattern input : inputs) {
+            if (input.matcher(path).matches()
+                    || input.matcher(folder).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The inputs of a job, with their patterns compiled once.
+     */
+    private static class JobInputs {
+
+        /** The module index. */
+        private final int _module;
+
+        /** The local path of the job member. */
+        private final String _jclPath;
+
+        /** Patterns of the inputs, null if all members of the module are. */
+        private final List < Pattern > _patterns;
+
+        /** Folders that must be scanned, null if the whole module must. */
+        private final List < String > _baseFolders;
+
+        /** Upper case remote names of the inputs not uploaded yet. */
+        private final Set < String > _pending = new HashSet < String >();
+
+        /**
+         * @param module the module index
+         * @param inputs glob patterns of the files or folders the job
+         *            depends on, or null if it depends on all members of
+         *            the module
+         * @param jclPath the local path of the job member
+         */
+        JobInputs(final int module, final List < String > inputs,
+                final String jclPath) {
+            _module = module;
+            _jclPath = jclPath;
+            if (inputs == null) {
+                _patterns = null;
+                _baseFolders = null;
+            } else {
+                _patterns = new ArrayList < Pattern >();
+                _baseFolders = new ArrayList < String >();
+                _baseFolders.add(SourceScanner.getParent(jclPath));
+                for (String input : inputs) {
+                    _patterns.add(SourceScanner.toPattern(input));
+                    _baseFolders.add(getBaseFolder(input));
+                }
+            }
+        }
+
+        /**
+         * @return the module index
+         */
+        public int getModule() {
+            return _module;
+        }
+
+        /**
+         * @return the folders that must be scanned, null if the whole module
+         *         must
+         */
+        public List < String > getBaseFolders() {
+            return _baseFolders;
+        }
+
+        /**
+         * @return the upper case remote names of the inputs not uploaded yet
+         */
+        public Set < String > getPending() {
+            return _pending;
+        }
+
+        /**
+         * @param path a local path relative to the input folder
+         * @return true if the member at that path is an input of the job or
+         *         the job member itself
+         */
+        public boolean matches(final String path) {
+            return _patterns == null || path.equals(_jclPath)
+                    || UploadTracker.matches(_patterns, path);
+        }
+    }
+}
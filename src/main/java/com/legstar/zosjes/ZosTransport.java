@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A session with a z/OS system that uploads PDS members and runs jobs.
+ * <p/>
+ * Remote members and data sets are designated by their fully qualified
+ * names. Members are passed quoted, the way FTP expects them, for instance
+ * <code>'P390.LIB.CNTL(LISTCAT)'</code>. Jobs are designated by their JES
+ * job ID.
+ * <p/>
+ * A session is used by a single thread at a time.
+ *
+ */
+public interface ZosTransport {
+
+    /** Status of a job waiting for execution. */
+    String STATUS_INPUT = "INPUT";
+
+    /** Status of a job in execution. */
+    String STATUS_ACTIVE = "ACTIVE";
+
+    /** Status of a job whose output is available. */
+    String STATUS_OUTPUT = "OUTPUT";
+
+    /**
+     * Record the timing of each operation of this session.
+     *
+     * @param tracer the trace recorder
+     * @param track the timeline track of this session
+     */
+    void setTracer(TraceRecorder tracer, int track);
+
+    /**
+     * Limit the bandwidth used by this session.
+     *
+     * @param uploadThrottle limits the bandwidth of uploads and submits
+     * @param downloadThrottle limits the bandwidth of output retrieval
+     */
+    void setThrottles(Throttle uploadThrottle, Throttle downloadThrottle);
+
+    /**
+     * Open the session.
+     *
+     * @param hostName the mainframe address
+     * @param hostUserID the mainframe user ID used to authenticate
+     * @param hostPassword the mainframe password used to authenticate
+     * @throws IOException if connection fails
+     */
+    void open(String hostName, String hostUserID, String hostPassword)
+            throws IOException;
+
+    /**
+     * @return true if the session is usable
+     */
+    boolean isConnected();
+
+    /**
+     * Upload a single file to the mainframe.
+     *
+     * @param remote the quoted z/OS name of the member
+     * @param local the local file
+     * @throws IOException if upload fails
+     */
+    void upload(String remote, File local) throws IOException;
+
+    /**
+     * Upload content already in memory to the mainframe.
+     *
+     * @param remote the quoted z/OS name of the member
+     * @param content the file content
+     * @throws IOException if upload fails
+     */
+    void upload(String remote, byte[] content) throws IOException;
+
+    /**
+     * Checks whether a partitioned data set exists.
+     *
+     * @param datasetName the fully qualified data set name, unquoted
+     * @return true if the data set exists and is partitioned
+     * @throws IOException if the check fails
+     */
+    boolean isPartitionedDataset(String datasetName) throws IOException;
+
+    /**
+     * Allocates a PDSE with a half track optimal block size.
+     *
+     * @param datasetName the fully qualified data set name, unquoted
+     * @param recfm the record format (FB, VB, ...)
+     * @param lrecl the logical record length
+     * @param primary the primary space in tracks
+     * @param secondary the secondary space in tracks
+     * @param directory the number of directory blocks
+     * @throws IOException if allocation fails
+     */
+    void allocatePds(String datasetName, String recfm, int lrecl,
+            int primary, int secondary, int directory) throws IOException;
+
+    /**
+     * Submits the job passed as a string.
+     * <p/>
+     * Upon return the job is queued in JES.
+     *
+     * @param jcl a string containing JCL to submit
+     * @return the JES job ID that was assigned
+     * @throws IOException if submit fails
+     */
+    String submitJob(String jcl) throws IOException;
+
+    /**
+     * Submits a JCL available on the mainframe and waits until its output is
+     * available.
+     *
+     * @param remoteFile the quoted z/OS name of the member holding the JCL
+     * @return the content of the submitted job output files
+     * @throws IOException if something goes wrong
+     */
+    String submitWaitForOutput(String remoteFile) throws IOException;
+
+    /**
+     * Get the status of a job.
+     *
+     * @param jobId the job ID
+     * @return one of {@link #STATUS_INPUT}, {@link #STATUS_ACTIVE},
+     *         {@link #STATUS_OUTPUT} or another status reported by JES
+     * @throws IOException if the job is unknown
+     */
+    String getJobStatus(String jobId) throws IOException;
+
+    /**
+     * Retrieves the output of a job.
+     *
+     * @param jobId the job ID to retrieve
+     * @return the content of the job output files
+     * @throws IOException if something goes wrong
+     */
+    String getJobOutput(String jobId) throws IOException;
+
+    /**
+     * Purges a job and its output from the JES spool.
+     *
+     * @param jobId the job ID to purge
+     * @throws IOException if the purge fails
+     */
+    void purgeJob(String jobId) throws IOException;
+
+    /**
+     * Close the session.
+     *
+     * @throws IOException if close fails
+     */
+    void close() throws IOException;
+}
@@ -11,12 +11,31 @@
 package com.legstar.zosjes;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.apache.maven.model.Plugin;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
 
 /**
  * Maven plugin for source upload to z/OS.
@@ -37,17 +56,45 @@ import org.apache.maven.plugin.MojoFailureException;
  *           from zos/H370 to 'P390.LEGSTAR.VxRyMz.H370'
  *           from zos/CNTL to 'P390.LEGSTAR.VxRyMz.CNTL'
  * <p/>
+ * Nested sub folders map to PDS names with one more qualifier per level,
+ * so zos/C370/COPY uploads to 'P390.LEGSTAR.VxRyMz.C370.COPY'. Folder
+ * mappings can override this rule for folders matching a glob pattern.
+ * Include and exclude glob patterns select which files get uploaded.
+ * <p/>
  * file names should not have any extensions and must be valid PDS member names
- * (i.e. must be less than 9 characters).
+ * (i.e. must be less than 9 characters). Names are validated while the tree
+ * is scanned.
  * <p/>
  * The folder CNTL has special meaning as all members are assumed
  * to be submittable to jes.
+ * <p/>
+ * In a multi-module build, aggregate mode batches all modules into a
+ * single run. Each module where the plugin executes only registers its
+ * inputFolder, remoteFilesPrefix and jclFileNames. The execution in the
+ * last module of the reactor that declares the plugin (even without an
+ * inputFolder) then uploads all registered trees over shared sessions,
+ * members that several modules upload to the same place being sent once,
+ * and submits the JCL chains of different modules concurrently. When no
+ * module of the reactor declares the plugin, as when the goal is invoked
+ * from the command line, each module is uploaded on its own.
  * 
  * @goal upload
  * @description z/OS source upload plugin
  */
 public class ZosUploadMojo extends AbstractMojo {
 
+    /** The sub folder holding JCL to submit. */
+    public static final String CNTL_FOLDER = "CNTL";
+
+    /** Highest condition code for a job to be considered successful. */
+    public static final int MAX_COND_CODE = 4;
+
+    /** How often scan errors are checked while logging in, in milliseconds. */
+    public static final long SCAN_CHECK_INTERVAL = 100L;
+
+    /** The key of this plugin in a project build, group and artifact IDs. */
+    public static final String PLUGIN_KEY = "com.legsem.legstar:zosupload-maven-plugin";
+
     /**
      * The z/OS FTP server IP address.
      *
@@ -113,6 +160,320 @@ public class ZosUploadMojo extends AbstractMojo {
      */
     protected List < String > jclFileNames;
 
+    /**
+     * Glob patterns, relative to inputFolder, of files to upload.
+     * <p/>
+     * When this list is empty, all files are uploaded. Patterns use '/' as
+     * separator, '*' matches characters within a folder or file name and
+     * '**' matches any number of folders (for instance COBOL/**&#47;*).
+     *
+     * @parameter
+     */
+    protected List < String > includes;
+
+    /**
+     * Glob patterns, relative to inputFolder, of files or folders to ignore.
+     *
+     * @parameter
+     */
+    protected List < String > excludes;
+
+    /**
+     * Whether hidden files, editor backups and temporary files should be
+     * ignored in addition to the excludes.
+     *
+     * @parameter default-value="true"
+     */
+    protected boolean useDefaultExcludes = true;
+
+    /**
+     * Inputs each CNTL job depends on.
+     * <p/>
+     * A job is submitted as soon as its own member and all its inputs are
+     * uploaded, while the remaining uploads continue, so that job execution
+     * overlaps with transfers. Inputs are glob patterns, relative to
+     * inputFolder, matching files or the folder they are in. Jobs with no
+     * declared dependency wait for all files of their module. Jobs are
+     * still submitted in order, each one after the previous one completed.
+     *
+     * @parameter
+     */
+    protected List < JobDependency > jobDependencies;
+
+    /**
+     * Rules mapping local folders to PDS names.
+     * <p/>
+     * The first mapping whose folder pattern matches a local folder gives
+     * the qualifiers appended to remoteFilesPrefix. Folders that match no
+     * mapping use their relative path with each folder level as a qualifier.
+     *
+     * @parameter
+     */
+    protected List < FolderMapping > folderMappings;
+
+    /**
+     * Number of threads scanning the inputFolder tree in parallel.
+     *
+     * @parameter expression="${legstar.scanThreads}" default-value="4"
+     */
+    protected int scanThreads = 4;
+
+    /**
+     * Smallest number of concurrent sessions used for uploads.
+     * <p/>
+     * The number of sessions starts at this value and is tuned at runtime
+     * between minSessions and maxSessions. It grows while throughput improves
+     * and is halved when the server replies 421 or 425 or when latency
+     * spikes.
+     *
+     * @parameter expression="${legstar.minSessions}" default-value="1"
+     */
+    protected int minSessions = 1;
+
+    /**
+     * Largest number of concurrent sessions used for uploads.
+     *
+     * @parameter expression="${legstar.maxSessions}" default-value="4"
+     */
+    protected int maxSessions = 4;
+
+    /**
+     * Journal of the jobs submitted, with their JCL content hash, job ID
+     * and highest condition code.
+     *
+     * @parameter default-value="${project.build.directory}/zosupload-checkpoint.properties"
+     */
+    protected File checkpointFile;
+
+    /**
+     * Resume a job chain that failed in a previous run.
+     * <p/>
+     * Jobs that succeeded in the previous run, and whose JCL did not change
+     * since, are skipped up to the first job that failed or changed. That
+     * job and all following ones are submitted again.
+     *
+     * @parameter expression="${legstar.resume}" default-value="false"
+     */
+    protected boolean resume;
+
+    /**
+     * When set, a timeline of all FTP operations is written to this file in
+     * the Chrome trace-event format (open it with Perfetto or
+     * chrome://tracing).
+     *
+     * @parameter expression="${legstar.traceFile}"
+     */
+    protected File traceFile;
+
+    /**
+     * Maximum number of FTP operations kept in the timeline. When there are
+     * more, the oldest ones are dropped.
+     *
+     * @parameter default-value="65536"
+     */
+    protected int traceBufferSize = 65536;
+
+    /**
+     * What to do with the output of submitted jobs once it has been
+     * retrieved and analyzed.
+     * <p/>
+     * One of <code>never</code> to leave all output on the JES spool,
+     * <code>keepFailed</code> to purge the output of successful jobs only,
+     * or <code>always</code> to purge all output. Purges happen in the
+     * background, once all jobs are done.
+     *
+     * @parameter expression="${legstar.purgePolicy}" default-value="never"
+     */
+    protected String purgePolicy = JobPurger.NEVER;
+
+    /**
+     * When set, the held output of each submitted job is saved in this
+     * folder before it is purged from the JES spool.
+     *
+     * @parameter expression="${legstar.outputArchiveFolder}"
+     */
+    protected File outputArchiveFolder;
+
+    /**
+     * Maximum upload bandwidth to the z/OS server, in bytes per second,
+     * shared by all sessions of all executions of this plugin in the JVM
+     * that upload to the same host. Zero means no limit.
+     *
+     * @parameter expression="${legstar.uploadBytesPerSecond}" default-value="0"
+     */
+    protected long uploadBytesPerSecond;
+
+    /**
+     * Maximum download bandwidth from the z/OS server, in bytes per second,
+     * shared by all sessions of all executions of this plugin in the JVM
+     * that download from the same host. Zero means no limit.
+     *
+     * @parameter expression="${legstar.downloadBytesPerSecond}" default-value="0"
+     */
+    protected long downloadBytesPerSecond;
+
+    /**
+     * Maximum upload bandwidth, in bytes per second, shared by all
+     * executions of this plugin in the JVM, whatever the host. Zero means
+     * no limit.
+     *
+     * @parameter expression="${legstar.jvmUploadBytesPerSecond}" default-value="0"
+     */
+    protected long jvmUploadBytesPerSecond;
+
+    /**
+     * Maximum download bandwidth, in bytes per second, shared by all
+     * executions of this plugin in the JVM, whatever the host. Zero means
+     * no limit.
+     *
+     * @parameter expression="${legstar.jvmDownloadBytesPerSecond}" default-value="0"
+     */
+    protected long jvmDownloadBytesPerSecond;
+
+    /**
+     * Number of bytes that can be transferred at full speed after a pause
+     * before bandwidth limits apply. Lets small members through without
+     * waiting.
+     *
+     * @parameter expression="${legstar.burstBytes}" default-value="65536"
+     */
+    protected long burstBytes = 65536L;
+
+    /**
+     * Use the FTP compressed transfer mode (MODE C) for uploads and job output
+     * retrieval. Saves bandwidth on sources and listings full of blanks.
+     *
+     * @parameter expression="${legstar.compressedTransfer}" default-value="false"
+     */
+    protected boolean compressedTransfer = false;
+
+    /**
+     * How to reach z/OS: ftp, or zosmf for the z/OSMF REST files and jobs
+     * services. With zosmf, hostName may be a URL such as
+     * http://mainframe:8080, otherwise HTTPS is used.
+     *
+     * @parameter expression="${legstar.transport}" default-value="ftp"
+     */
+    protected String transport = SessionFactory.FTP;
+
+    /**
+     * Allocate the target PDSs that do not exist yet, as PDSE with a half
+     * track optimal block size. Each PDS is checked before the first member
+     * is uploaded to it.
+     *
+     * @parameter expression="${legstar.allocateDatasets}" default-value="false"
+     */
+    protected boolean allocateDatasets = false;
+
+    /**
+     * Record format of allocated PDSs.
+     *
+     * @parameter expression="${legstar.datasetRecfm}" default-value="FB"
+     */
+    protected String datasetRecfm = "FB";
+
+    /**
+     * Logical record length of allocated PDSs.
+     *
+     * @parameter expression="${legstar.datasetLrecl}" default-value="80"
+     */
+    protected int datasetLrecl = 80;
+
+    /**
+     * Primary space of allocated PDSs, in tracks.
+     *
+     * @parameter expression="${legstar.datasetPrimaryTracks}" default-value="15"
+     */
+    protected int datasetPrimaryTracks = 15;
+
+    /**
+     * Secondary space of allocated PDSs, in tracks.
+     *
+     * @parameter expression="${legstar.datasetSecondaryTracks}" default-value="15"
+     */
+    protected int datasetSecondaryTracks = 15;
+
+    /**
+     * Directory blocks of allocated PDSs.
+     *
+     * @parameter expression="${legstar.datasetDirectoryBlocks}" default-value="20"
+     */
+    protected int datasetDirectoryBlocks = 20;
+
+    /**
+     * Batch the uploads of all modules of a multi-module build into a single
+     * run, performed by the last module of the build that declares this
+     * plugin.
+     * <p/>
+     * Each module only registers what it wants uploaded. Members that
+     * several modules upload to the same place are sent once, all modules
+     * share the same sessions, and the JCL chains of different modules are
+     * submitted concurrently (up to maxSessions at a time). The JCLs of each
+     * module are still submitted in order.
+     *
+     * @parameter expression="${legstar.aggregate}" default-value="false"
+     */
+    protected boolean aggregate = false;
+
+    /**
+     * Upload files with identical content only once.
+     * <p/>
+     * A file with the same content as a file uploaded to another PDS is not
+     * sent. Once uploads are over, such members are created on z/OS by a
+     * generated IEBCOPY job instead. Target PDSs must have compatible record
+     * formats.
+     *
+     * @parameter expression="${legstar.deduplicateContent}" default-value="false"
+     */
+    protected boolean deduplicateContent = false;
+
+    /**
+     * The job card of the generated IEBCOPY job, one element per line.
+     * <p/>
+     * Defaults to <code>//useridC JOB CLASS=A,MSGCLASS=X</code>. With the
+     * ftp transport, the job name must start with the user ID so that the
+     * job output can be retrieved. If the FTP server is at JESINTERFACELEVEL
+     * 1, the job name must be the user ID followed by exactly one
+     * character, otherwise the job is not found.
+     *
+     * @parameter
+     */
+    protected List < String > copyJobCard;
+
+    /**
+     * The current project.
+     *
+     * @parameter expression="${project}"
+     * @readonly
+     */
+    protected MavenProject project;
+
+    /**
+     * All projects in the build, in build order.
+     *
+     * @parameter expression="${reactorProjects}"
+     * @readonly
+     */
+    protected List < MavenProject > reactorProjects;
+
+    /** Opens sessions. */
+    private SessionFactory _sessions;
+
+    /** Bytes uploaded by this execution. */
+    private TokenBucket _uploadBucket;
+
+    /** Bytes downloaded by this execution. */
+    private TokenBucket _downloadBucket;
+
+    /** Purges job output from the JES spool at the end of the run. */
+    private JobPurger _purger;
+
+    /** Target PDSs known to exist. */
+    private final Set < String > _checkedDatasets = new HashSet < String >();
+
+    /** Jobs submitted so far, data set and member of the JCL. */
+    private final Set < String > _submittedJobs = Collections.synchronizedSet(new HashSet < String >());
+
     /**
      * {@inheritDoc}
      */
@@ -120,133 +481,936 @@ public class ZosUploadMojo extends AbstractMojo {
     	if (skipUpload) {
     		getLog().info("Uploads skipped per request.");
     		return;
+    	}
+    	List < ModuleUpload > modules = getModules();
+    	if (modules == null) {
+    		return;
     	}
 		getLog().info("Upload sources to z/OS server: " + hostName + ", user id: " + hostUserId);
-		FtpZosClient ftpZosClient = new FtpZosClient();
 		try {
-			ftpZosClient.open(hostName, hostUserId, hostPassword);
-			doUploads(ftpZosClient);
-		} catch (IOException e) {
-			throw new MojoExecutionException("Upload sources to z/OS failed", e);
+			_sessions = createSessionFactory();
+			_purger = new JobPurger(purgePolicy, _sessions, getLog());
+		} catch (IllegalArgumentException e) {
+			throw new MojoExecutionException(e.getMessage());
+		}
+
+		UploadTracker tracker = new UploadTracker(modules.size());
+		MergedSource source = createSource(modules, tracker);
+		source.setDeduplicateContent(deduplicateContent);
+		MemberReader reader = new MemberReader(source, MemberReader.DEFAULT_QUEUE_CAPACITY);
+
+		/* Connect and login while the local trees are scanned and read */
+		ExecutorService connector = Executors.newSingleThreadExecutor();
+		Future < ZosTransport > session = connector.submit(new Callable < ZosTransport >() {
+			public ZosTransport call() throws IOException {
+				ZosTransport zosSession = _sessions.openSession(_sessions.getTracer().newTrack("submit"));
+				if (Thread.currentThread().isInterrupted()) {
+					/* Abandoned because validation failed */
+					zosSession.close();
+				}
+				return zosSession;
+			}
+		});
+		source.start();
+		reader.start();
+		try {
+			ZosTransport zosSession = getSession(session, source, modules);
+			doUploads(zosSession, modules, source, tracker, reader);
 		} finally {
+			reader.cancel();
+			connector.shutdown();
+			/* Jobs of a failed run were not purged yet */
+			_purger.start();
+			closeSession(session);
+			reportBandwidth();
 			try {
-				ftpZosClient.close();
-			} catch (IOException e) {
-				// Just ignore. mainframe will wipe up connection anyway
+				_purger.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
+			writeTrace();
 		}
 	}
+
+    /**
+     * Get the modules to upload in this execution.
+     * <p/>
+     * Without aggregate mode, this is the module being built. In aggregate
+     * mode, the module being built is registered in the plan shared by the
+     * reactor and nothing is uploaded until the last module, which runs the
+     * whole plan.
+     * 
+     * @return the modules to upload or null if there is nothing to do now
+     * @throws MojoFailureException if the input folder is invalid
+     */
+    protected List < ModuleUpload > getModules() throws MojoFailureException {
+    	if (!aggregate) {
+    		checkInputFolder();
+    		return Collections.singletonList(createModuleUpload());
+    	}
+    	String planKey = getLastProjectId();
+    	if (planKey == null) {
+    		getLog().warn("No project of the build declares " + PLUGIN_KEY
+    				+ ", uploading " + getModuleName() + " on its own.");
+    		checkInputFolder();
+    		return Collections.singletonList(createModuleUpload());
+    	}
+    	if (inputFolder != null) {
+    		checkInputFolder();
+    		UploadPlan.getShared(planKey).add(createModuleUpload());
+    	}
+    	if (project != null && !project.getId().equals(planKey)) {
+    		getLog().info("Upload of " + getModuleName() + " deferred to " + planKey);
+    		return null;
+    	}
+    	List < ModuleUpload > modules = UploadPlan.remove(planKey).getModules();
+    	if (modules.size() == 0) {
+    		getLog().warn("No module registered sources to upload.");
+    		return null;
+    	}
+    	getLog().info("Uploading " + modules.size() + " modules: " + modules);
+    	return modules;
+    }
+
+    /**
+     * The plan shared by the reactor runs in the last project that declares
+     * this plugin, since a project that does not declare it never runs it.
+     * 
+     * @return the ID of the last project in the build that declares this
+     *         plugin, which identifies the plan shared by the reactor, or
+     *         null if no project declares it
+     */
+    protected String getLastProjectId() {
+    	if (reactorProjects == null || reactorProjects.size() == 0) {
+    		return (project == null) ? "default" : project.getId();
+    	}
+    	for (int i = reactorProjects.size() - 1; i >= 0; i--) {
+    		if (declaresPlugin(reactorProjects.get(i))) {
+    			return reactorProjects.get(i).getId();
+    		}
+    	}
+    	return null;
+    }
+
+    /**
+     * @param reactorProject a project of the build
+     * @return true if the project build declares this plugin
+     */
+    protected static boolean declaresPlugin(final MavenProject reactorProject) {
+    	if (reactorProject.getBuildPlugins() == null) {
+    		return false;
+    	}
+    	for (Object plugin : reactorProject.getBuildPlugins()) {
+    		if (PLUGIN_KEY.equals(((Plugin) plugin).getKey())) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
+    /**
+     * @return the name of the module being built
+     */
+    protected String getModuleName() {
+    	return (project == null) ? inputFolder.getPath() : project.getArtifactId();
+    }
+
+    /**
+     * Check that the input folder exists.
+     * 
+     * @throws MojoFailureException if the input folder is invalid
+     */
+    protected void checkInputFolder() throws MojoFailureException {
+    	if (inputFolder == null || !inputFolder.isDirectory()) {
+    		throw new MojoFailureException("Invalid input folder " + inputFolder);
+    	}
+    }
+
+    /**
+     * Describe the upload of the module being built, using the include,
+     * exclude and folder mapping settings.
+     * 
+     * @return a new module upload
+     */
+    protected ModuleUpload createModuleUpload() {
+    	List < String > allExcludes = new ArrayList < String >();
+    	if (useDefaultExcludes) {
+    		allExcludes.addAll(Arrays.asList(SourceScanner.DEFAULT_EXCLUDES));
+    	}
+    	if (excludes != null) {
+    		allExcludes.addAll(excludes);
+    	}
+    	return new ModuleUpload(getModuleName(), inputFolder, remoteFilesPrefix,
+    			jclFileNames, includes, allExcludes, folderMappings, jobDependencies);
+    }
+
+    /**
+     * Create the factory for all sessions of this execution, with
+     * tracing and bandwidth limits as requested.
+     * 
+     * @return a new session factory
+     */
+    protected SessionFactory createSessionFactory() {
+    	SessionFactory sessions = newSessionFactory();
+		if (traceFile != null) {
+			sessions.setTracer(new TraceRecorder(traceBufferSize));
+		}
+		_uploadBucket = new TokenBucket(0L, burstBytes);
+		_downloadBucket = new TokenBucket(0L, burstBytes);
+		sessions.setThrottles(
+				createThrottle("upload", _uploadBucket, uploadBytesPerSecond, jvmUploadBytesPerSecond),
+				createThrottle("download", _downloadBucket, downloadBytesPerSecond, jvmDownloadBytesPerSecond));
+		sessions.setCompressedTransfer(compressedTransfer);
+		sessions.setTransport(transport);
+		return sessions;
+    }
+
+    /**
+     * Create the throttle for one direction. Limits are enforced by buckets
+     * shared in the JVM, one per host and one for all hosts, so that
+     * executions running in parallel stay within the limits together.
+     * 
+     * @param direction the transfer direction, which names the shared buckets
+     * @param bucket the bucket counting the transfers of this execution
+     * @param hostRate bytes per second to or from this host, zero for no limit
+     * @param jvmRate bytes per second to or from all hosts, zero for no limit
+     * @return a new throttle
+     */
+    protected Throttle createThrottle(
+    		final String direction,
+    		final TokenBucket bucket,
+    		final long hostRate,
+    		final long jvmRate) {
+    	List < TokenBucket > buckets = new ArrayList < TokenBucket >();
+    	buckets.add(bucket);
+    	if (hostRate > 0) {
+    		buckets.add(TokenBucket.getShared(direction + ":" + hostName, hostRate, burstBytes));
+    	}
+    	if (jvmRate > 0) {
+    		buckets.add(TokenBucket.getShared(direction, jvmRate, burstBytes));
+    	}
+    	return new Throttle(buckets.toArray(new TokenBucket[buckets.size()]));
+    }
+
+    /**
+     * @return a new factory opening sessions on the z/OS host
+     */
+    protected SessionFactory newSessionFactory() {
+    	return new SessionFactory(hostName, hostUserId, hostPassword);
+    }
+
+    /**
+     * Report the bandwidth achieved by this execution.
+     */
+    protected void reportBandwidth() {
+    	reportBandwidth("Uploaded", _uploadBucket, uploadBytesPerSecond);
+    	reportBandwidth("Downloaded", _downloadBucket, downloadBytesPerSecond);
+    }
+
+    /**
+     * Report the bandwidth achieved in one direction.
+     * 
+     * @param direction the transfer direction
+     * @param bucket the bucket all transfers of this execution in that
+     *            direction went through
+     * @param hostRate the limit shared by executions using the same host,
+     *            zero for no limit
+     */
+    protected void reportBandwidth(final String direction, final TokenBucket bucket,
+    		final long hostRate) {
+    	if (bucket.getTotalBytes() == 0) {
+    		return;
+    	}
+    	StringBuilder sb = new StringBuilder(direction);
+    	sb.append(' ').append(bucket.getTotalBytes()).append(" bytes");
+    	if (bucket.getAchievedRate() >= 0) {
+    		sb.append(" at ").append(bucket.getAchievedRate()).append(" bytes/s");
+    	}
+    	if (hostRate > 0) {
+    		sb.append(" (limit ").append(hostRate).append(" bytes/s for ").append(hostName).append(')');
+    	}
+    	getLog().info(sb.toString());
+    }
+
+    /**
+     * Allocate a target PDS if it does not exist yet. Each PDS is checked
+     * once, before the first member is uploaded to it, and uploads wait
+     * while a PDS is being checked.
+     * 
+     * @param session the session
+     * @param datasetName the target PDS name
+     * @throws IOException if allocation fails
+     */
+    protected void allocateDataset(
+    		final ZosTransport session,
+    		final String datasetName) throws IOException {
+    	synchronized (_checkedDatasets) {
+    		if (_checkedDatasets.contains(datasetName)) {
+    			return;
+    		}
+    		if (!session.isPartitionedDataset(datasetName)) {
+    			getLog().info("Allocating: " + datasetName + " RECFM=" + datasetRecfm
+    					+ " LRECL=" + datasetLrecl + " BLKSIZE="
+    					+ FtpZosClient.getOptimalBlockSize(datasetRecfm, datasetLrecl));
+    			session.allocatePds(datasetName, datasetRecfm, datasetLrecl,
+    					datasetPrimaryTracks, datasetSecondaryTracks, datasetDirectoryBlocks);
+    		}
+    		_checkedDatasets.add(datasetName);
+    	}
+    }
+
+    /**
+     * Wait for the session opened in the background while the trees are
+     * scanned. Names are validated as the trees are scanned, so that if an
+     * error is found before the session is open, nothing is sent to z/OS.
+     * 
+     * @param session the session being opened
+     * @param source the source scanning the trees of all modules
+     * @param modules the modules to upload
+     * @return the open session
+     * @throws MojoFailureException if the trees contain invalid names
+     * @throws MojoExecutionException if the session could not be opened
+     */
+    protected ZosTransport getSession(
+    		final Future < ZosTransport > session,
+    		final MergedSource source,
+    		final List < ModuleUpload > modules) throws MojoFailureException, MojoExecutionException {
+    	try {
+    		while (true) {
+    			if (source.hasErrors()) {
+    				checkScanErrors(source, modules);
+    			}
+    			try {
+    				return session.get(SCAN_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    			} catch (TimeoutException e) {
+    				continue;
+    			}
+    		}
+    	} catch (ExecutionException e) {
+    		throw new MojoExecutionException("Upload sources to z/OS failed", e.getCause());
+    	} catch (InterruptedException e) {
+    		throw new MojoExecutionException("Upload sources to z/OS interrupted", e);
+    	}
+    }
+
+    /**
+     * Close the session opened in the background. If it is still being
+     * opened, because the run failed before it was needed, the login is
+     * abandoned rather than waited for.
+     * 
+     * @param session the session being opened
+     */
+    protected void closeSession(final Future < ZosTransport > session) {
+    	if (!session.isDone()) {
+    		session.cancel(true);
+    		return;
+    	}
+    	try {
+    		session.get().close();
+    	} catch (ExecutionException e) {
+    		// The session was never opened
+    	} catch (CancellationException e) {
+    		// The login was abandoned
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	} catch (IOException e) {
+    		// Just ignore. mainframe will wipe up connection anyway
+    	}
+    }
+
+    /**
+     * Write the timeline of FTP operations if requested.
+     * <p/>
+     * Failing to write the timeline does not fail the build.
+     */
+    protected void writeTrace() {
+    	TraceRecorder tracer = _sessions.getTracer();
+    	if (tracer.isEnabled()) {
+    		try {
+    			tracer.write(traceFile);
+    			getLog().info("Wrote " + tracer.size() + " FTP operations to " + traceFile);
+    		} catch (IOException e) {
+    			getLog().warn("Unable to write " + traceFile, e);
+    		}
+    	}
+    }
     
     /**
-     * Uploads all eligible source files from inputfolder and then
+     * Uploads all eligible source files from inputfolder and
      * submit the JCLs if any.
      * <p/>
-     * Each sub folder in inputfolder (apart from hidden folders whose
-     * name start with a period) is assumed to correspond to a PDS on
-     * z/OS. The name of that PDS is built from remoteFilesPrefix and
-     * the sub folder name.
+     * This is a pipeline where the trees are scanned in the background,
+     * files are read ahead, and each file is uploaded as soon as it is read,
+     * over a number of concurrent FTP sessions that adapts to the server
+     * load. Stages are connected by bounded queues, so memory use does not
+     * depend on the size of the trees. Names are validated as they are
+     * scanned and uploads stop on the first invalid one. Each
+     * folder below inputfolder (apart from excluded ones, which by default
+     * include hidden folders whose name start with a period) is assumed to
+     * correspond to a PDS on z/OS. The name of that PDS is built from
+     * remoteFilesPrefix and the folder path or a matching folder mapping.
+     * When deduplicateContent is set, files with the same content as a file
+     * uploaded to another PDS are copied on z/OS once uploads are over.
      * <p/>
      * A sub folder named CNTL is assumed to contain JCL that we want 
      * to submit for execution. If the names of JCLs to submit are
      * explicitly requested using jclFileNames, then only these JCLs
-     * are submitted. Otherwise all files in CNTL are submitted.
+     * are submitted. Otherwise all uploaded files from CNTL are submitted
+     * in alphabetical order. Each JCL is submitted as soon as the files it
+     * depends on are uploaded, while the remaining uploads continue.
+     * <p/>
+     * When there are several modules, their trees go through the same
+     * pipeline and each module JCLs form a chain of their own.
      * 
-     * @param ftpZosClient the FTP client
-     * @throws MojoFailureException if job submission fails
+     * @param session the session used to submit JCL
+     * @param modules the modules to upload
+     * @param source the started source scanning the trees
+     * @param tracker notified of the scanned members and folders
+     * @param reader the started stage reading the members to upload
+     * @throws MojoFailureException if a name is invalid or job submission
+     *             fails
      * @throws MojoExecutionException if upload fails
      */
     protected void doUploads(
-    		final FtpZosClient ftpZosClient) throws MojoFailureException, MojoExecutionException {
+    		final ZosTransport session,
+    		final List < ModuleUpload > modules,
+    		final MergedSource source,
+    		final UploadTracker tracker,
+    		final MemberReader reader) throws MojoFailureException, MojoExecutionException {
 
-    	if (inputFolder == null || !inputFolder.isDirectory()) {
-    		throw new MojoFailureException("Invalid input folder " + inputFolder);
+    	UploadEngine engine = new UploadEngine(_sessions, minSessions, maxSessions, getLog());
+    	final List < JobChain > chains = createChains(modules, source);
+    	final JobCheckpoint checkpoint = openCheckpoint();
+
+    	/* Submit JCLs in the background, each one once its inputs are uploaded */
+    	ExecutorService submitter = Executors.newSingleThreadExecutor();
+    	Future < Void > submission = submitter.submit(new Callable < Void >() {
+    		public Void call() throws MojoFailureException, MojoExecutionException {
+    			submitChains(session, chains, tracker, checkpoint);
+    			return null;
+    		}
+    	});
+    	submitter.shutdown();
+
+    	Exception uploadFailure = null;
+    	try {
+    		engine.run(reader, new UploadEngine.Listener() {
+    			public void uploading(final SourceMember member, final ZosTransport uploadSession)
+    					throws IOException {
+    				if (allocateDatasets) {
+    					allocateDataset(uploadSession, member.getDatasetName());
+    				}
+    			}
+
+    			public void uploaded(final SourceMember member) {
+    				tracker.uploaded(member);
+    			}
+    		});
+    		checkScanErrors(source, modules);
+    		if (reader.getFailure() != null) {
+    			throw new MojoExecutionException("Upload to z/OS failed", reader.getFailure());
+    		}
+    		copyMembers(source, tracker);
+    	} catch (IOException e) {
+    		uploadFailure = new MojoExecutionException("Upload to z/OS failed", e);
+    	} catch (InterruptedException e) {
+    		uploadFailure = new MojoExecutionException("Upload to z/OS interrupted", e);
+    	} catch (MojoFailureException e) {
+    		uploadFailure = e;
+    	} catch (MojoExecutionException e) {
+    		uploadFailure = e;
+    	} finally {
+    		reader.cancel();
+    		tracker.close();
     	}
 
-    	File[] subFolders = inputFolder.listFiles();
-    	if (subFolders == null || subFolders.length == 0) {
-    		getLog().warn("Folder " + inputFolder + " is empty.");
+    	/* Jobs already submitted complete whatever happened to uploads */
+    	Exception submitFailure = null;
+    	try {
+    		submission.get();
+    	} catch (ExecutionException e) {
+    		submitFailure = (Exception) e.getCause();
+    	} catch (InterruptedException e) {
+    		throw new MojoExecutionException("Job submission to z/OS interrupted", e);
+    	}
+
+    	/* All jobs are done, purge while the run winds down */
+    	_purger.start();
+    	if (uploadFailure != null) {
+    		throwFailure(uploadFailure);
+    	}
+    	if (source.getDiscoveredCount() == 0) {
+    		getLog().warn("Folder " + modules.get(0).getInputFolder() + " has nothing to upload.");
+    	}
+    	if (source.getDuplicateCount() > 0) {
+    		getLog().info("Skipped " + source.getDuplicateCount()
+    				+ " members uploaded by several modules.");
+    	}
+    	throwFailure(submitFailure);
+    }
+
+    /**
+     * Create the members whose content was already uploaded to another PDS,
+     * using a generated IEBCOPY job, and report the transfers saved.
+     * 
+     * @param source the source that recorded the copies
+     * @param tracker notified of the members created
+     * @throws MojoFailureException if the copy job fails
+     * @throws IOException if something is wrong with the connection
+     */
+    protected void copyMembers(
+    		final MergedSource source,
+    		final UploadTracker tracker) throws MojoFailureException, IOException {
+    	Map < SourceMember, SourceMember > copies = source.getCopies();
+    	if (copies.size() == 0) {
     		return;
     	}
+    	CopyJob copyJob = new CopyJob((copyJobCard == null || copyJobCard.size() == 0)
+    			? CopyJob.getDefaultJobCard(hostUserId) : copyJobCard);
+    	for (Map.Entry < SourceMember, SourceMember > copy : copies.entrySet()) {
+    		copyJob.add(copy.getValue(), copy.getKey());
+    	}
 
-    	/* Get each sub folder in turn if they are not hidden, build a PDS name
-    	 * and upload all files in the sub folder. */
-    	for (File subFolder : subFolders) {
-    		if (subFolder.isDirectory() && subFolder.getName().charAt(0) != '.') {
-	    		String name = subFolder.getName();
-	    		String remote = remoteFilesPrefix + '.' + name;
-	    		for (File local : subFolder.listFiles()) {
-	    			if (local.isFile()) {
-	    				upload(ftpZosClient,
-	    						"'" + remote + "(" + local.getName() + ")'", local);
-	    			}
-	    		}
+    	/* The submit session may be busy with JCL chains */
+    	ZosTransport session = _sessions.openSession(_sessions.getTracer().newTrack("copy"));
+    	try {
+    		if (allocateDatasets) {
+    			for (SourceMember copy : copies.keySet()) {
+    				allocateDataset(session, copy.getDatasetName());
+    			}
+    		}
+    		getLog().info("Submit IEBCOPY job for " + copyJob.size() + " members");
+    		String heldOutput = copyJob.submitWaitForOutput(session);
+    		int maxCondCode = checkOutput("IEBCOPY", heldOutput, null, null);
+    		getLog().info("IEBCOPY job succeeded. Highest condition code: " + maxCondCode);
+    	} finally {
+    		try {
+    			session.close();
+    		} catch (IOException e) {
+    			// Just ignore. mainframe will wipe up connection anyway
     		}
     	}
+    	for (SourceMember copy : copies.keySet()) {
+    		tracker.uploaded(copy);
+    	}
+    	getLog().info("Copied " + copyJob.size() + " members with identical content on z/OS, saving "
+    			+ copyJob.size() + " transfers and " + source.getCopiedBytes() + " bytes");
+    }
 
-    	/* Submit JCLs. All of them if no list otherwise pick them from the list.*/
-    	File cntlFolder = new File(inputFolder, "CNTL");
-    	if (cntlFolder.exists() && cntlFolder.isDirectory()) {
-    		if (jclFileNames == null || jclFileNames.size() == 0) {
-	    		for (File local : cntlFolder.listFiles()) {
-	    			if (local.isFile()) {
-	    				submitJcl(ftpZosClient, "'" 
-	    						+ remoteFilesPrefix + ".CNTL"
-	    						+ "(" + local.getName() + ")'");
-	    			}
-	    		}
-    		} else {
-    			for (String jclFileName : jclFileNames) {
-    				File local = new File(cntlFolder, jclFileName);
-    				submitJcl(ftpZosClient, "'" 
-    						+ remoteFilesPrefix + ".CNTL"
-    						+ "(" + local.getName() + ")'");
+    /**
+     * Create the JCL chain of each module that has JCLs to submit. All
+     * JCLs are picked from CNTL once it is scanned, unless they are listed.
+     * 
+     * @param modules the modules to upload
+     * @param source the source merging the modules
+     * @return the JCL chains
+     */
+    protected List < JobChain > createChains(
+    		final List < ModuleUpload > modules,
+    		final MergedSource source) {
+    	List < JobChain > chains = new ArrayList < JobChain >();
+    	for (int i = 0; i < modules.size(); i++) {
+    		ModuleUpload module = modules.get(i);
+    		List < String > jcls = null;
+    		if (module.getJclFileNames().size() > 0) {
+    			if (!new File(module.getInputFolder(), CNTL_FOLDER).isDirectory()) {
+    				continue;
     			}
+    			jcls = module.getJclFileNames();
     		}
+    		chains.add(new JobChain(i, module,
+    				source.getScanner(i).getDatasetName(CNTL_FOLDER), jcls));
     	}
+    	return chains;
     }
-    
+
     /**
-	 * Upload a single file to the mainframe.
-     * @param ftpZosClient the FTP client
-	 * @param remote the z/OS name of the file
-	 * @param local the local file
-     * @throws MojoExecutionException if upload fails
+     * Submit independent chains of JCLs. A single chain is submitted over
+     * the session. Otherwise chains run concurrently, up to maxSessions at a
+     * time, each additional chain over a session of its own.
+     * <p/>
+     * A failed chain does not stop the others. All failures are reported
+     * and the first one is thrown.
+     * 
+     * @param session the session
+     * @param chains the JCL chains
+     * @param tracker tells when the inputs of each JCL are uploaded
+     * @param checkpoint the journal where jobs are recorded (may be null)
+     * @throws MojoFailureException if a job submitted fails
+     * @throws MojoExecutionException if something is wrong with the connection
      */
-    protected void upload(
-    		final FtpZosClient ftpZosClient,
-    		final String remote,
-    		final File local) throws MojoExecutionException {
+    protected void submitChains(
+    		final ZosTransport session,
+    		final List < JobChain > chains,
+    		final UploadTracker tracker,
+    		final JobCheckpoint checkpoint) throws MojoFailureException, MojoExecutionException {
+    	if (chains.size() == 0) {
+    		return;
+    	}
+    	if (chains.size() == 1) {
+    		submitJcls(session, chains.get(0), tracker, checkpoint);
+    		return;
+    	}
+    	ExecutorService executor = Executors.newFixedThreadPool(
+    			Math.max(1, Math.min(chains.size(), maxSessions)));
+    	List < Future < Void > > results = new ArrayList < Future < Void > >();
+    	for (int i = 0; i < chains.size(); i++) {
+    		final JobChain chain = chains.get(i);
+    		final boolean ownSession = (i > 0);
+    		results.add(executor.submit(new Callable < Void >() {
+    			public Void call() throws Exception {
+    				ZosTransport chainSession = session;
+    				if (ownSession) {
+    					chainSession = _sessions.openSession(
+    							_sessions.getTracer().newTrack("submit-" + chain.getName()));
+    				}
+    				try {
+    					submitJcls(chainSession, chain, tracker, checkpoint);
+    				} finally {
+    					if (ownSession) {
+    						try {
+    							chainSession.close();
+    						} catch (IOException e) {
+    							// Just ignore. mainframe will wipe up connection anyway
+    						}
+    					}
+    				}
+    				return null;
+    			}
+    		}));
+    	}
+    	executor.shutdown();
+    	Exception failure = null;
+    	for (int i = 0; i < results.size(); i++) {
+    		try {
+    			results.get(i).get();
+    		} catch (ExecutionException e) {
+    			getLog().error("Jobs of " + chains.get(i).getName() + " failed: "
+    					+ e.getCause().getMessage());
+    			if (failure == null) {
+    				failure = (Exception) e.getCause();
+    			}
+    		} catch (InterruptedException e) {
+    			executor.shutdownNow();
+    			throw new MojoExecutionException("Job submission to z/OS interrupted", e);
+    		}
+    	}
+    	throwFailure(failure);
+    }
+
+    /**
+     * Rethrow a job submission failure caught in another thread.
+     * 
+     * @param failure the failure (may be null)
+     * @throws MojoFailureException if a job submitted failed
+     * @throws MojoExecutionException if something was wrong with the connection
+     */
+    protected void throwFailure(
+    		final Exception failure) throws MojoFailureException, MojoExecutionException {
+    	if (failure instanceof MojoFailureException) {
+    		throw (MojoFailureException) failure;
+    	}
+    	if (failure instanceof MojoExecutionException) {
+    		throw (MojoExecutionException) failure;
+    	}
+    	if (failure != null) {
+    		throw new MojoExecutionException("Job submission to z/OS failed", failure);
+    	}
+    }
+
+    /**
+     * Open the checkpoint journal if one is requested. Unless resuming, the
+     * journal of the previous run is cleared.
+     * 
+     * @return the journal or null if none is requested
+     * @throws MojoExecutionException if the journal cannot be opened
+     */
+    protected JobCheckpoint openCheckpoint() throws MojoExecutionException {
+    	if (checkpointFile == null) {
+    		return null;
+    	}
+    	JobCheckpoint checkpoint = new JobCheckpoint(checkpointFile);
+    	try {
+    		if (resume) {
+    			checkpoint.load();
+    		} else {
+    			checkpoint.reset();
+    		}
+    	} catch (IOException e) {
+    		throw new MojoExecutionException("Job checkpoint failed", e);
+    	}
+    	return checkpoint;
+    }
+
+    /**
+     * Submit an ordered chain of JCLs from the CNTL PDS.
+     * <p/>
+     * Each JCL is submitted once its inputs are uploaded and the previous
+     * job completed. If uploads stop before the inputs are all uploaded,
+     * the rest of the chain is not submitted.
+     * <p/>
+     * Each job is recorded in the checkpoint journal. When resuming, the
+     * leading jobs that the journal shows as successful with the same JCL
+     * content are skipped. Jobs already submitted by another chain are
+     * skipped too.
+     * 
+     * @param session the session
+     * @param chain the JCLs in submission order
+     * @param tracker tells when the inputs of each JCL are uploaded
+     * @param checkpoint the journal where jobs are recorded (may be null)
+     * @throws MojoFailureException if a job submitted fails
+     * @throws MojoExecutionException if something is wrong with the connection
+     */
+    protected void submitJcls(
+    		final ZosTransport session,
+    		final JobChain chain,
+    		final UploadTracker tracker,
+    		final JobCheckpoint checkpoint) throws MojoFailureException, MojoExecutionException {
 		try {
-			getLog().info("Uploading: " + local + " to " + remote);
-			ftpZosClient.upload(remote, local);
+			List < String > jcls = chain.getJcls();
+			if (jcls == null) {
+				if (!tracker.awaitScanned(chain.getIndex(), CNTL_FOLDER)) {
+					return;
+				}
+				jcls = tracker.getFileNames(chain.getIndex(), CNTL_FOLDER);
+				Collections.sort(jcls);
+			}
+	    	boolean skipping = resume && checkpoint != null;
+	    	for (String jcl : jcls) {
+	    		String job = chain.getCntlDataset() + "(" + jcl + ")";
+	    		/* A JCL that is not a local file is submitted but not journaled */
+	    		File jclFile = new File(chain.getCntlFolder(), jcl);
+	    		String hash = (checkpoint != null && jclFile.isFile())
+	    				? FileDigest.hash(jclFile) : null;
+	    		if (skipping && hash != null
+	    				&& checkpoint.isCompleted(job, hash, MAX_COND_CODE)) {
+	    			getLog().info("Job from: '" + job + "' skipped, already succeeded as "
+	    					+ checkpoint.getJobId(job));
+	    			continue;
+	    		}
+	    		skipping = false;
+	    		if (!_submittedJobs.add(job)) {
+	    			getLog().info("Job from: '" + job + "' skipped, already submitted");
+	    			continue;
+	    		}
+	    		if (!tracker.awaitUploaded(chain.getIndex(),
+	    				chain.getModule().getJobInputs(jcl), CNTL_FOLDER + '/' + jcl)) {
+	    			return;
+	    		}
+	    		int pending = tracker.getPendingCount();
+	    		if (pending > 0) {
+	    			getLog().info("Inputs of '" + job + "' uploaded, "
+	    					+ pending + " members left to upload");
+	    		}
+	    		submitJcl(session, "'" + job + "'", checkpoint, job, hash);
+	    	}
 		} catch (IOException e) {
-			throw new MojoExecutionException("Upload to z/OS failed", e);
+			throw new MojoExecutionException("Job checkpoint failed", e);
+		} catch (InterruptedException e) {
+			throw new MojoExecutionException("Job submission to z/OS interrupted", e);
 		}
     }
+
+    /**
+     * Create a source merging the trees of all modules.
+     * 
+     * @param modules the modules to upload
+     * @param tracker notified of discovered members and completed scans
+     *            (may be null)
+     * @return a new source, not started
+     */
+    protected MergedSource createSource(
+    		final List < ModuleUpload > modules,
+    		final UploadTracker tracker) {
+    	List < SourceScanner > scanners = new ArrayList < SourceScanner >();
+    	for (ModuleUpload module : modules) {
+    		scanners.add(module.createScanner(scanThreads));
+    	}
+    	return new MergedSource(scanners, tracker);
+    }
+
+    /**
+     * Report all invalid file names and conflicting members found by a scan.
+     * 
+     * @param source the merged source
+     * @param modules the modules scanned
+     * @throws MojoFailureException if the scan found invalid names
+     */
+    protected void checkScanErrors(
+    		final MergedSource source,
+    		final List < ModuleUpload > modules) throws MojoFailureException {
+    	List < String > errors = source.getErrors();
+    	if (errors.size() > 0) {
+    		for (String error : errors) {
+    			getLog().error(error);
+    		}
+    		throw new MojoFailureException("Scan of " + ((modules.size() == 1)
+    				? modules.get(0).getInputFolder().toString() : modules.toString())
+    				+ " found " + errors.size() + " invalid file names");
+    	}
+    }
     
+    /**
+     * Save a job held output in the archive folder if one is requested.
+     * 
+     * @param job the job key, data set and member of the JCL
+     * @param jobId the JES job ID (may be null)
+     * @param heldOutput the job held output
+     * @throws IOException if the output cannot be saved
+     */
+    protected void archiveOutput(
+    		final String job,
+    		final String jobId,
+    		final String heldOutput) throws IOException {
+    	if (outputArchiveFolder == null) {
+    		return;
+    	}
+    	if (!outputArchiveFolder.exists() && !outputArchiveFolder.mkdirs()) {
+    		throw new IOException("Unable to create " + outputArchiveFolder);
+    	}
+    	String name = job.replace('(', '.').replace(")", "") + '.' + jobId + ".txt";
+    	Writer writer = new OutputStreamWriter(new FileOutputStream(
+    			new File(outputArchiveFolder, name)), "UTF-8");
+    	try {
+    		writer.write(heldOutput);
+    	} finally {
+    		writer.close();
+    	}
+    }
+
     /**
      * Submit a JCL to JES and wait for an output. Then get the output and
      * check for any invalid condition codes.
-     * @param ftpZosClient the FTP client
+     * @param session the session
      * @param jclFileName the z/OS file name holding the JCL
+     * @param checkpoint the journal where the job is recorded (may be null)
+     * @param job the job key in the journal
+     * @param hash the hash of the JCL content (null if not journaled)
      * @throws MojoFailureException if the job submitted fails
-     * @throws MojoExecutionException if something is wrong with the FTP connection
+     * @throws MojoExecutionException if something is wrong with the connection
      */
     protected void submitJcl(
-    		final FtpZosClient ftpZosClient,
-    		final String jclFileName) throws MojoFailureException, MojoExecutionException {
+    		final ZosTransport session,
+    		final String jclFileName,
+    		final JobCheckpoint checkpoint,
+    		final String job,
+    		final String hash) throws MojoFailureException, MojoExecutionException {
 		try {
 			getLog().info("Submit job from: " + jclFileName);
-			String heldOutput = ftpZosClient.submitWaitForOutput(jclFileName);
-			int maxCondCode = ftpZosClient.getHighestCondCode(heldOutput);
-			if (maxCondCode > 4) {
-				throw new MojoFailureException(
-						"Job submitted to z/OS failed.  Highest condition code: " + maxCondCode);
-			}
+			String heldOutput = session.submitWaitForOutput(jclFileName);
+			int maxCondCode = checkOutput(job, heldOutput, checkpoint, hash);
 			getLog().info("Job from: " + jclFileName + " succeeded. Highest condition code: " + maxCondCode);
 		} catch (IOException e) {
 			throw new MojoExecutionException("Job submission to z/OS failed", e);
 		}
     }
 
+    /**
+     * Check a job output for any invalid condition codes. The job is
+     * recorded in the checkpoint journal, its output archived and its
+     * purge scheduled.
+     * 
+     * @param job the job key in the journal and archive
+     * @param heldOutput the job held output
+     * @param checkpoint the journal where the job is recorded (may be null)
+     * @param hash the hash of the JCL content (null if not journaled)
+     * @return the highest condition code
+     * @throws MojoFailureException if the job failed
+     * @throws IOException if the job cannot be recorded or archived
+     */
+    protected int checkOutput(
+    		final String job,
+    		final String heldOutput,
+    		final JobCheckpoint checkpoint,
+    		final String hash) throws MojoFailureException, IOException {
+		int maxCondCode = JobOutputAnalyzer.getHighestCondCode(heldOutput);
+		String jobId = JobOutputAnalyzer.getJobId(heldOutput);
+		if (checkpoint != null && hash != null) {
+			checkpoint.record(job, hash, jobId, maxCondCode);
+		}
+		archiveOutput(job, jobId, heldOutput);
+		_purger.add(jobId, maxCondCode > MAX_COND_CODE);
+		if (maxCondCode > MAX_COND_CODE) {
+			throw new MojoFailureException(
+					"Job submitted to z/OS failed.  Highest condition code: " + maxCondCode);
+		}
+		return maxCondCode;
+    }
+
+    /**
+     * An ordered chain of JCLs of one module.
+     */
+    protected static class JobChain {
+
+        /** The module index. */
+        private final int _index;
+
+        /** The module. */
+        private final ModuleUpload _module;
+
+        /** The PDS holding the JCLs. */
+        private final String _cntlDataset;
+
+        /** The member names of the JCLs in submission order (null for all). */
+        private final List < String > _jcls;
+
+        /**
+         * @param index the module index
+         * @param module the module
+         * @param cntlDataset the PDS holding the JCLs
+         * @param jcls the member names of the JCLs in submission order, or
+         *            null for all members of the CNTL folder
+         */
+        public JobChain(final int index, final ModuleUpload module,
+                final String cntlDataset, final List < String > jcls) {
+            _index = index;
+            _module = module;
+            _cntlDataset = cntlDataset;
+            _jcls = jcls;
+        }
+
+        /**
+         * @return the module index
+         */
+        public int getIndex() {
+            return _index;
+        }
+
+        /**
+         * @return the module
+         */
+        public ModuleUpload getModule() {
+            return _module;
+        }
+
+        /**
+         * @return the module name
+         */
+        public String getName() {
+            return _module.getName();
+        }
+
+        /**
+         * @return the PDS holding the JCLs
+         */
+        public String getCntlDataset() {
+            return _cntlDataset;
+        }
+
+        /**
+         * @return the local folder holding the JCLs
+         */
+        public File getCntlFolder() {
+            return new File(_module.getInputFolder(), CNTL_FOLDER);
+        }
+
+        /**
+         * @return the member names of the JCLs in submission order, or null
+         *         for all members of the CNTL folder
+         */
+        public List < String > getJcls() {
+            return _jcls;
+        }
+    }
+
 }
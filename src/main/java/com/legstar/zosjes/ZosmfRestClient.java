@@ -0,0 +1,544 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Uses the z/OSMF REST files and jobs services.
+ * <p/>
+ * Requests go through the JDK HTTP client which keeps connections alive and
+ * reuses them from one request to the next, and across sessions. Sessions
+ * are therefore cheap and many of them can be active at the same time.
+ * <p/>
+ * The host name is either a plain host name, with an optional port, in
+ * which case HTTPS is used, or a URL such as
+ * <code>http://mainframe:8080</code>.
+ *
+ */
+public class ZosmfRestClient implements ZosTransport {
+
+    /** Root of the data sets REST service. */
+    public static final String FILES_PATH = "/zosmf/restfiles/ds";
+
+    /** Root of the jobs REST service. */
+    public static final String JOBS_PATH = "/zosmf/restjobs/jobs";
+
+    /**
+     * Lists at most one job, a cheap request that needs valid credentials,
+     * unlike the z/OSMF information service.
+     */
+    public static final String LOGIN_CHECK_QUERY = "&max-jobs=1";
+
+    /** Default time between 2 job status requests, in milliseconds. */
+    public static final long DEFAULT_POLL_INTERVAL = 1000L;
+
+    /** Default time to wait for a job output, in milliseconds. */
+    public static final long DEFAULT_WAIT_TIMEOUT = 600000L;
+
+    /** A flat JSON object, z/OSMF replies never nest objects in items. */
+    private static final Pattern JSON_OBJECT_PATTERN = Pattern
+            .compile("\\{[^{}]*\\}");
+
+    /** Records operation timings. */
+    private TraceRecorder _tracer = TraceRecorder.DISABLED;
+
+    /** The trace track for this session. */
+    private int _track;
+
+    /** Limits the bandwidth of uploads. */
+    private Throttle _uploadThrottle = Throttle.NONE;
+
+    /** Limits the bandwidth of downloads. */
+    private Throttle _downloadThrottle = Throttle.NONE;
+
+    /** The z/OSMF URL, null when the session is closed. */
+    private String _baseUrl;
+
+    /** The basic authentication header. */
+    private String _authorization;
+
+    /** Job names of known jobs, keyed by job ID. */
+    private final Map < String, String > _jobNames = new HashMap < String, String >();
+
+    /** Time between 2 job status requests, in milliseconds. */
+    private long _pollInterval = DEFAULT_POLL_INTERVAL;
+
+    /** Time to wait for a job output, in milliseconds. */
+    private long _waitTimeout = DEFAULT_WAIT_TIMEOUT;
+
+    /** {@inheritDoc} */
+    public void setTracer(final TraceRecorder tracer, final int track) {
+        _tracer = tracer;
+        _track = track;
+    }
+
+    /** {@inheritDoc} */
+    public void setThrottles(final Throttle uploadThrottle,
+            final Throttle downloadThrottle) {
+        _uploadThrottle = uploadThrottle;
+        _downloadThrottle = downloadThrottle;
+    }
+
+    /**
+     * @param pollInterval time between 2 job status requests, in
+     *            milliseconds
+     */
+    public void setPollInterval(final long pollInterval) {
+        _pollInterval = pollInterval;
+    }
+
+    /**
+     * @param waitTimeout time to wait for a job output, in milliseconds
+     */
+    public void setWaitTimeout(final long waitTimeout) {
+        _waitTimeout = waitTimeout;
+    }
+
+    /** {@inheritDoc} */
+    public void open(final String hostName, final String hostUserID,
+            final String hostPassword) throws IOException {
+        String baseUrl = (hostName.startsWith("http://") || hostName
+                .startsWith("https://")) ? hostName : "https://" + hostName;
+        _baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl
+                .length() - 1) : baseUrl;
+        _authorization = "Basic "
+                + toBase64((hostUserID + ":" + hostPassword)
+                        .getBytes("UTF-8"));
+        long start = _tracer.begin();
+        try {
+            request("GET", JOBS_PATH + "?owner="
+                    + encode(hostUserID.toUpperCase()) + LOGIN_CHECK_QUERY,
+                    null, null);
+        } catch (IOException e) {
+            _baseUrl = null;
+            throw e;
+        } finally {
+            _tracer.end(_track, "login", start, -1L, hostName, null);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean isConnected() {
+        return _baseUrl != null;
+    }
+
+    /** {@inheritDoc} */
+    public void upload(final String remote, final File local)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream((int) local
+                .length());
+        InputStream is = new FileInputStream(local);
+        try {
+            copy(is, baos);
+        } finally {
+            is.close();
+        }
+        upload(remote, baos.toByteArray());
+    }
+
+    /** {@inheritDoc} */
+    public void upload(final String remote, final byte[] content)
+            throws IOException {
+        long start = _tracer.begin();
+        request("PUT", FILES_PATH + "/" + encode(unquote(remote)),
+                "text/plain", content, "X-IBM-Data-Type", "text");
+        _tracer.end(_track, "store", start, content.length, remote, null);
+    }
+
+    /** {@inheritDoc} */
+    public boolean isPartitionedDataset(final String datasetName)
+            throws IOException {
+        long start = _tracer.begin();
+        String reply = request("GET", FILES_PATH + "?dslevel="
+                + encode(datasetName), null, null, "X-IBM-Attributes", "base");
+        _tracer.end(_track, "list", start, -1L, datasetName, null);
+        for (String item : getObjects(reply)) {
+            String dsorg = getValue(item, "dsorg");
+            if (datasetName.equalsIgnoreCase(getValue(item, "dsname"))
+                    && dsorg != null && dsorg.startsWith("PO")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public void allocatePds(final String datasetName, final String recfm,
+            final int lrecl, final int primary, final int secondary,
+            final int directory) throws IOException {
+        String attributes = "{\"dsorg\":\"PO\",\"alcunit\":\"TRK\""
+                + ",\"primary\":" + primary + ",\"secondary\":" + secondary
+                + ",\"dirblk\":" + directory + ",\"recfm\":"
+                + toJson(recfm.toUpperCase()) + ",\"blksize\":"
+                + FtpZosClient.getOptimalBlockSize(recfm, lrecl)
+                + ",\"lrecl\":" + lrecl + ",\"dsntype\":\"LIBRARY\"}";
+        long start = _tracer.begin();
+        request("POST", FILES_PATH + "/" + encode(datasetName),
+                "application/json", attributes.getBytes("UTF-8"));
+        _tracer.end(_track, "allocate", start, -1L, datasetName, null);
+    }
+
+    /** {@inheritDoc} */
+    public String submitJob(final String jcl) throws IOException {
+        long start = _tracer.begin();
+        byte[] content = jcl.getBytes();
+        String jobId = register(request("PUT", JOBS_PATH, "text/plain",
+                content, "X-IBM-Intrdr-Class", "A", "X-IBM-Intrdr-Recfm",
+                "F", "X-IBM-Intrdr-Lrecl", "80", "X-IBM-Intrdr-Mode", "TEXT"));
+        _tracer.end(_track, "submit", start, content.length, null, jobId);
+        return jobId;
+    }
+
+    /** {@inheritDoc} */
+    public String submitWaitForOutput(final String remoteFile)
+            throws IOException {
+        long start = _tracer.begin();
+        String jobId = register(request("PUT", JOBS_PATH, "application/json",
+                ("{\"file\":" + toJson("//" + remoteFile) + "}")
+                        .getBytes("UTF-8")));
+        long deadline = System.currentTimeMillis() + _waitTimeout;
+        while (!STATUS_OUTPUT.equals(getJobStatus(jobId))) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Job " + jobId + " from " + remoteFile
+                        + " has no output after " + _waitTimeout + " ms");
+            }
+            try {
+                Thread.sleep(_pollInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for job "
+                        + jobId);
+            }
+        }
+        String output = getJobOutput(jobId);
+        _tracer.end(_track, "wait", start, output.length(), remoteFile, jobId);
+        return output;
+    }
+
+    /** {@inheritDoc} */
+    public String getJobStatus(final String jobId) throws IOException {
+        long start = _tracer.begin();
+        String reply = request("GET", getJobPath(jobId), null, null);
+        _tracer.end(_track, "status", start, -1L, null, jobId);
+        String status = getValue(reply, "status");
+        if (status == null) {
+            throw new IOException("No status for job " + jobId);
+        }
+        return status;
+    }
+
+    /** {@inheritDoc} */
+    public String getJobOutput(final String jobId) throws IOException {
+        long start = _tracer.begin();
+        String jobPath = getJobPath(jobId);
+        StringBuilder output = new StringBuilder();
+        for (String file : getObjects(request("GET", jobPath + "/files",
+                null, null))) {
+            String id = getValue(file, "id");
+            if (id != null) {
+                output.append(request("GET", jobPath + "/files/" + id
+                        + "/records", null, null));
+            }
+        }
+        _tracer.end(_track, "retrieve", start, output.length(), jobId, jobId);
+        return output.toString();
+    }
+
+    /** {@inheritDoc} */
+    public void purgeJob(final String jobId) throws IOException {
+        long start = _tracer.begin();
+        request("DELETE", getJobPath(jobId), null, null,
+                "X-IBM-Job-Modify-Version", "2.0");
+        _tracer.end(_track, "purge", start, -1L, null, jobId);
+        synchronized (_jobNames) {
+            _jobNames.remove(jobId);
+        }
+    }
+
+    /**
+     * Nothing to release, connections are kept alive by the JDK for other
+     * sessions.
+     *
+     * @throws IOException never
+     */
+    public void close() throws IOException {
+        _baseUrl = null;
+    }
+
+    /**
+     * Remember the job name of a submitted job, which is needed to address
+     * the job.
+     *
+     * @param reply the submit reply
+     * @return the job ID
+     * @throws IOException if the reply has no job ID
+     */
+    protected String register(final String reply) throws IOException {
+        String jobId = getValue(reply, "jobid");
+        String jobName = getValue(reply, "jobname");
+        if (jobId == null || jobName == null) {
+            throw new IOException("Unexpected submit reply " + reply);
+        }
+        synchronized (_jobNames) {
+            _jobNames.put(jobId, jobName);
+        }
+        return jobId;
+    }
+
+    /**
+     * @param jobId a job ID
+     * @return the path of the job resource, looking up the job name if the
+     *         job was not submitted by this session
+     * @throws IOException if the job is unknown
+     */
+    protected String getJobPath(final String jobId) throws IOException {
+        String jobName;
+        synchronized (_jobNames) {
+            jobName = _jobNames.get(jobId);
+        }
+        if (jobName == null) {
+            for (String job : getObjects(request("GET", JOBS_PATH
+                    + "?owner=*&jobid=" + encode(jobId), null, null))) {
+                if (jobId.equals(getValue(job, "jobid"))) {
+                    jobName = getValue(job, "jobname");
+                }
+            }
+            if (jobName == null) {
+                throw new IOException("Job " + jobId + " not found in JES");
+            }
+            synchronized (_jobNames) {
+                _jobNames.put(jobId, jobName);
+            }
+        }
+        return JOBS_PATH + "/" + encode(jobName) + "/" + encode(jobId);
+    }
+
+    /**
+     * Send a request and read the whole response so that the connection can
+     * be reused.
+     *
+     * @param method the HTTP method
+     * @param path the request path and query
+     * @param contentType the body content type (ignored if no body)
+     * @param body the request body (may be null)
+     * @param headers additional header names and values
+     * @return the response body
+     * @throws IOException if the request fails or the response is an error
+     */
+    protected String request(final String method, final String path,
+            final String contentType, final byte[] body,
+            final String... headers) throws IOException {
+        if (_baseUrl == null) {
+            throw new IOException("Session is not open");
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(_baseUrl
+                + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Authorization", _authorization);
+        connection.setRequestProperty("X-CSRF-ZOSMF-HEADER", "true");
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            connection.setRequestProperty(headers[i], headers[i + 1]);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setFixedLengthStreamingMode(body.length);
+            OutputStream os = _uploadThrottle.wrap(connection
+                    .getOutputStream());
+            try {
+                os.write(body);
+            } finally {
+                os.close();
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream is = (status >= HttpURLConnection.HTTP_BAD_REQUEST) ? connection
+                .getErrorStream()
+                : connection.getInputStream();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (is != null) {
+            try {
+                copy(_downloadThrottle.wrap(is), baos);
+            } finally {
+                is.close();
+            }
+        }
+        String reply = baos.toString("UTF-8");
+        if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            String message = getValue(reply, "message");
+            throw new IOException(status + " " + connection.getResponseMessage()
+                    + " " + method + " " + path
+                    + ((message == null) ? "" : ": " + message));
+        }
+        return reply;
+    }
+
+    /**
+     * @param json a JSON document
+     * @return the innermost JSON objects it contains, in order
+     */
+    protected static List < String > getObjects(final String json) {
+        List < String > objects = new ArrayList < String >();
+        Matcher matcher = JSON_OBJECT_PATTERN.matcher(json);
+        while (matcher.find()) {
+            objects.add(matcher.group());
+        }
+        return objects;
+    }
+
+    /**
+     * Get the value of the first occurrence of a string or number member.
+     *
+     * @param json a JSON document
+     * @param name the member name
+     * @return the member value or null if not found
+     */
+    protected static String getValue(final String json, final String name) {
+        Matcher matcher = Pattern.compile(
+                "\"" + Pattern.quote(name)
+                        + "\"\\s*:\\s*(?:\"((?:[^\"\\\\]|\\\\.)*)\"|(-?[\\d.]+))")
+                .matcher(json);
+        if (!matcher.find()) {
+            return null;
+        }
+        if (matcher.group(2) != null) {
+            return matcher.group(2);
+        }
+        String value = matcher.group(1);
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                sb.append(c);
+                continue;
+            }
+            c = value.charAt(++i);
+            switch (c) {
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'b':
+                sb.append('\b');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'u':
+                sb.append((char) Integer.parseInt(value.substring(i + 1, i + 5),
+                        16));
+                i += 4;
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param value a string
+     * @return the JSON string literal
+     */
+    protected static String toJson(final String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * @param remote a quoted z/OS name
+     * @return the name without quotes
+     */
+    protected static String unquote(final String remote) {
+        if (remote.length() > 1 && remote.startsWith("'")
+                && remote.endsWith("'")) {
+            return remote.substring(1, remote.length() - 1);
+        }
+        return remote;
+    }
+
+    /**
+     * Escape the characters of z/OS names that have a meaning in URLs.
+     *
+     * @param name a data set, member or job name
+     * @return the name, usable in a URL
+     */
+    protected static String encode(final String name) {
+        return name.replace("#", "%23").replace("$", "%24").replace("@",
+                "%40");
+    }
+
+    /**
+     * @param is where to read from
+     * @param os where to write to
+     * @throws IOException if copy fails
+     */
+    private static void copy(final InputStream is, final OutputStream os)
+            throws IOException {
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = is.read(buffer)) > 0) {
+            os.write(buffer, 0, count);
+        }
+    }
+
+    /**
+     * @param bytes some bytes
+     * @return the bytes in base 64
+     */
+    protected static String toBase64(final byte[] bytes) {
+        final String digits = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+                + "abcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < bytes.length; i += 3) {
+            int n = (bytes[i] & 0xFF) << 16;
+            if (i + 1 < bytes.length) {
+                n |= (bytes[i + 1] & 0xFF) << 8;
+            }
+            if (i + 2 < bytes.length) {
+                n |= bytes[i + 2] & 0xFF;
+            }
+            sb.append(digits.charAt((n >> 18) & 0x3F));
+            sb.append(digits.charAt((n >> 12) & 0x3F));
+            sb.append((i + 1 < bytes.length) ? digits.charAt((n >> 6) & 0x3F)
+                    : '=');
+            sb.append((i + 2 < bytes.length) ? digits.charAt(n & 0x3F) : '=');
+        }
+        return sb.toString();
+    }
+}
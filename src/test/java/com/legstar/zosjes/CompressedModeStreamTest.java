@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the CompressedModeOutputStream and CompressedModeInputStream classes.
+ *
+ */
+public class CompressedModeStreamTest extends TestCase {
+
+	/**
+	 * Blanks become filler strings, other runs replicated strings.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testEncoding() throws Exception {
+		byte[] encoded = encode("AB     CCCCDD".getBytes("US-ASCII"));
+		assertEquals("02 41 42 c5 84 43 02 44 44 00 40", toHex(encoded));
+	}
+
+	/**
+	 * Long runs and long data are split in several blocks.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testLongBlocks() throws Exception {
+		byte[] blanks = new byte[100];
+		Arrays.fill(blanks, (byte) ' ');
+		assertEquals("ff e5 00 40", toHex(encode(blanks)));
+
+		byte[] data = new byte[200];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ('a' + (i % 2));
+		}
+		byte[] encoded = encode(data);
+		assertEquals(1 + 127 + 1 + 73 + 2, encoded.length);
+		assertEquals(127, encoded[0]);
+		assertEquals(73, encoded[128]);
+	}
+
+	/**
+	 * Whatever the content and however it is read, decoding restores it.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testRoundTrip() throws Exception {
+		Random random = new Random(42);
+		for (int i = 0; i < 50; i++) {
+			byte[] data = new byte[random.nextInt(5000)];
+			for (int j = 0; j < data.length;) {
+				int run = 1 + random.nextInt(random.nextBoolean() ? 3 : 150);
+				byte b = (byte) (random.nextBoolean() ? ' ' : random.nextInt());
+				for (int k = 0; k < run && j < data.length; k++, j++) {
+					data[j] = b;
+				}
+			}
+			byte[] encoded = encode(data);
+			assertTrue(Arrays.equals(data, decode(encoded, 1 + random
+					.nextInt(300))));
+			assertTrue(Arrays.equals(data, decodeByteByByte(encoded)));
+		}
+	}
+
+	/**
+	 * Nothing past the end of file marker is returned.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testEndOfFile() throws Exception {
+		byte[] encoded = { 0x01, 'A', (byte) 0xC2, 0x00, (byte) 0x80,
+				0x01, 'B', 0x00, 0x40, 0x01, 'C' };
+		assertEquals("A  B", new String(decode(encoded, 10), "US-ASCII"));
+		assertEquals(0, decode(new byte[0], 10).length);
+	}
+
+	/**
+	 * @param data the content
+	 * @return the content encoded in compressed mode
+	 * @throws Exception if encoding fails
+	 */
+	private static byte[] encode(final byte[] data) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		OutputStream os = new CompressedModeOutputStream(baos);
+		os.write(data);
+		os.close();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @param encoded content in compressed mode
+	 * @param bufferSize the size of reads
+	 * @return the decoded content
+	 * @throws Exception if decoding fails
+	 */
+	private static byte[] decode(final byte[] encoded, final int bufferSize)
+			throws Exception {
+		InputStream is = new CompressedModeInputStream(
+				new ByteArrayInputStream(encoded));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[bufferSize];
+		int count;
+		while ((count = is.read(buffer)) > 0) {
+			baos.write(buffer, 0, count);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @param encoded content in compressed mode
+	 * @return the decoded content
+	 * @throws Exception if decoding fails
+	 */
+	private static byte[] decodeByteByByte(final byte[] encoded)
+			throws Exception {
+		InputStream is = new CompressedModeInputStream(
+				new ByteArrayInputStream(encoded));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		int b;
+		while ((b = is.read()) >= 0) {
+			baos.write(b);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @param bytes some bytes
+	 * @return the bytes in hexadecimal, separated by spaces
+	 */
+	private static String toHex(final byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			if (sb.length() > 0) {
+				sb.append(' ');
+			}
+			sb.append(Integer.toHexString((b & 0xFF) | 0x100).substring(1));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.IOException;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the ConcurrencyController class.
+ *
+ */
+public class ConcurrencyControllerTest extends TestCase {
+
+	/**
+	 * Limit grows after a window with better throughput and is halved once
+	 * per congestion episode.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testIncreaseDecrease() throws Exception {
+		ConcurrencyController controller = new ConcurrencyController(1, 4,
+				new SystemStreamLog());
+		assertEquals(1, controller.getLimit());
+
+		long ticket = controller.acquire();
+		controller.success(ticket, 1000, 1000000L);
+		assertEquals(2, controller.getLimit());
+
+		long ticket1 = controller.acquire();
+		long ticket2 = controller.acquire();
+		controller.congestion(ticket1, "421 Service not available");
+		assertEquals(1, controller.getLimit());
+
+		/* Second signal from the same episode is ignored */
+		controller.congestion(ticket2, "421 Service not available");
+		assertEquals(1, controller.getLimit());
+	}
+
+	/**
+	 * Limit stays within bounds.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testBounds() throws Exception {
+		ConcurrencyController controller = new ConcurrencyController(2, 2,
+				new SystemStreamLog());
+		long ticket = controller.acquire();
+		controller.congestion(ticket, "425 Can't open data connection");
+		assertEquals(2, controller.getLimit());
+		for (int i = 0; i < 10; i++) {
+			ticket = controller.acquire();
+			controller.success(ticket, 1000 * (i + 1), 1000000L);
+		}
+		assertEquals(2, controller.getLimit());
+	}
+
+	/**
+	 * Large transfers are not latency spikes, slow ones are.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testLatencySpike() throws Exception {
+		ConcurrencyController controller = new ConcurrencyController(4, 4,
+				new SystemStreamLog());
+		for (int i = 0; i < ConcurrencyController.LATENCY_WARMUP; i++) {
+			controller.success(controller.acquire(), 1000, 10000000L);
+		}
+		/* 100 times bigger, 100 times longer, no decrease so same ticket */
+		controller.success(controller.acquire(), 6553600, 1000000000L);
+		long ticket = controller.acquire();
+		assertEquals(0, ticket);
+		controller.success(ticket, 1000, 100000000L);
+		assertEquals(1, controller.acquire());
+	}
+
+	/**
+	 * Workers above the limit wait until the controller is closed.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testAwaitSlot() throws Exception {
+		final ConcurrencyController controller = new ConcurrencyController(1,
+				4, new SystemStreamLog());
+		assertTrue(controller.isAllowed(0));
+		assertFalse(controller.isAllowed(1));
+		assertTrue(controller.awaitSlot(0));
+		final boolean[] result = new boolean[] {true};
+		Thread worker = new Thread(new Runnable() {
+			public void run() {
+				try {
+					result[0] = controller.awaitSlot(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		worker.start();
+		Thread.sleep(100L);
+		assertTrue(worker.isAlive());
+		controller.close();
+		worker.join(5000L);
+		assertFalse(worker.isAlive());
+		assertFalse(result[0]);
+	}
+
+	/**
+	 * Recognize congestion replies.
+	 */
+	public void testIsCongestion() {
+		assertTrue(UploadEngine.isCongestion(new IOException("421 Service not available")));
+		assertTrue(UploadEngine.isCongestion(new IOException("425 Can't open data connection")));
+		assertFalse(UploadEngine.isCongestion(new IOException("550 Data set not found")));
+		assertFalse(UploadEngine.isCongestion(new IOException()));
+	}
+}
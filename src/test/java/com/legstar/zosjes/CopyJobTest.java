@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the CopyJob class.
+ *
+ */
+public class CopyJobTest extends TestCase {
+
+	/**
+	 * Default job card.
+	 */
+	public void testDefaultJobCard() {
+		assertEquals("[//P390C    JOB CLASS=A,MSGCLASS=X]",
+				CopyJob.getDefaultJobCard("p390").toString());
+		assertEquals("[//LONGUSEC JOB CLASS=A,MSGCLASS=X]",
+				CopyJob.getDefaultJobCard("LONGUSER").toString());
+	}
+
+	/**
+	 * Copies are grouped by pairs of PDSs.
+	 */
+	public void testJcl() {
+		CopyJob copyJob = new CopyJob(CopyJob.getDefaultJobCard("P390"));
+		copyJob.add(member("P390.A.COPY", "CPY1"), member("P390.B.COPY", "CPY1"));
+		copyJob.add(member("P390.A.COPY", "CPY2"), member("P390.B.COPY", "CPY2"));
+		copyJob.add(member("P390.A.COPY", "CPY1"), member("P390.B.CPY", "CUST"));
+		assertEquals(3, copyJob.size());
+		assertEquals(""
+				+ "//P390C    JOB CLASS=A,MSGCLASS=X\n"
+				+ "//COPY     EXEC PGM=IEBCOPY\n"
+				+ "//SYSPRINT DD SYSOUT=*\n"
+				+ "//DD1      DD DISP=OLD,DSN=P390.B.COPY\n"
+				+ "//DD2      DD DISP=SHR,DSN=P390.A.COPY\n"
+				+ "//DD3      DD DISP=OLD,DSN=P390.B.CPY\n"
+				+ "//SYSIN    DD *\n"
+				+ "  COPY OUTDD=DD1,INDD=DD2\n"
+				+ "  SELECT MEMBER=((CPY1,CPY1,R))\n"
+				+ "  SELECT MEMBER=((CPY2,CPY2,R))\n"
+				+ "  COPY OUTDD=DD3,INDD=DD2\n"
+				+ "  SELECT MEMBER=((CPY1,CUST,R))\n"
+				+ "/*\n",
+				copyJob.getJcl());
+	}
+
+	/**
+	 * An input member is selected once per COPY statement.
+	 */
+	public void testSameInputTwice() {
+		CopyJob copyJob = new CopyJob(CopyJob.getDefaultJobCard("P390"));
+		copyJob.add(member("P390.A.COPY", "CPY1"), member("P390.B.COPY", "CPY1"));
+		copyJob.add(member("P390.A.COPY", "CPY1"), member("P390.B.COPY", "CPY2"));
+		copyJob.add(member("P390.A.COPY", "CPY3"), member("P390.B.COPY", "CPY3"));
+		copyJob.add(member("P390.A.COPY", "CPY1"), member("P390.B.COPY", "CPY4"));
+		assertEquals(4, copyJob.size());
+		assertTrue(copyJob.getJcl().endsWith(""
+				+ "//SYSIN    DD *\n"
+				+ "  COPY OUTDD=DD1,INDD=DD2\n"
+				+ "  SELECT MEMBER=((CPY1,CPY1,R))\n"
+				+ "  COPY OUTDD=DD1,INDD=DD2\n"
+				+ "  SELECT MEMBER=((CPY1,CPY2,R))\n"
+				+ "  SELECT MEMBER=((CPY3,CPY3,R))\n"
+				+ "  COPY OUTDD=DD1,INDD=DD2\n"
+				+ "  SELECT MEMBER=((CPY1,CPY4,R))\n"
+				+ "/*\n"));
+	}
+
+	/**
+	 * Names are upper cased whatever their case in the project.
+	 */
+	public void testLowerCase() {
+		CopyJob copyJob = new CopyJob(CopyJob.getDefaultJobCard("P390"));
+		copyJob.add(member("p390.a.copy", "cpy1"), member("P390.B.COPY", "cpy1"));
+		copyJob.add(member("P390.A.COPY", "CPY1"), member("p390.b.copy", "Cpy2"));
+		assertTrue(copyJob.getJcl().endsWith(""
+				+ "//DD1      DD DISP=OLD,DSN=P390.B.COPY\n"
+				+ "//DD2      DD DISP=SHR,DSN=P390.A.COPY\n"
+				+ "//SYSIN    DD *\n"
+				+ "  COPY OUTDD=DD1,INDD=DD2\n"
+				+ "  SELECT MEMBER=((CPY1,CPY1,R))\n"
+				+ "  COPY OUTDD=DD1,INDD=DD2\n"
+				+ "  SELECT MEMBER=((CPY1,CPY2,R))\n"
+				+ "/*\n"));
+		try {
+			copyJob.add(member("p390.a.copy", "CPY1"), member("P390.A.COPY", "CPY2"));
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("IEBCOPY cannot copy"));
+		}
+	}
+
+	/**
+	 * IEBCOPY does not copy members within a PDS.
+	 */
+	public void testSamePds() {
+		try {
+			new CopyJob(CopyJob.getDefaultJobCard("P390")).add(
+					member("P390.A.COPY", "CPY1"), member("P390.A.COPY", "CPY2"));
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("IEBCOPY cannot copy 'P390.A.COPY(CPY1)' to 'P390.A.COPY(CPY2)'",
+					e.getMessage());
+		}
+	}
+
+	/**
+	 * @param datasetName the PDS name
+	 * @param memberName the member name
+	 * @return a member
+	 */
+	private SourceMember member(final String datasetName, final String memberName) {
+		return new SourceMember(new File(memberName), "COPY", datasetName, memberName);
+	}
+}
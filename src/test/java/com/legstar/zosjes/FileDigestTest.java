@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+import java.security.MessageDigest;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the FileDigest class.
+ *
+ */
+public class FileDigestTest extends TestCase {
+
+	/**
+	 * Content hash.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testHash() throws Exception {
+		assertEquals("d41d8cd98f00b204e9800998ecf8427e",
+				FileDigest.toHex(MessageDigest.getInstance("MD5").digest()));
+		assertEquals(32, FileDigest.hash(new File("src/test/resources/zos/CNTL/LISTCAT")).length());
+	}
+}
@@ -10,8 +10,20 @@
  ******************************************************************************/
 package com.legstar.zosjes;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPListParseEngine;
 
 import com.legstar.zosjes.FtpZosClient;
 
@@ -161,4 +173,217 @@ public class FtpZosClientTest extends TestCase {
 			fail(e.toString());
 		}
 	}
+
+	/**
+	 * Block sizes are half track optimal for 3390.
+	 */
+	public void testOptimalBlockSize() {
+		assertEquals(27920, FtpZosClient.getOptimalBlockSize("FB", 80));
+		assertEquals(27930, FtpZosClient.getOptimalBlockSize("fba", 133));
+		assertEquals(80, FtpZosClient.getOptimalBlockSize("F", 80));
+		assertEquals(27998, FtpZosClient.getOptimalBlockSize("VB", 255));
+		assertEquals(27998, FtpZosClient.getOptimalBlockSize("U", 0));
+	}
+
+	/**
+	 * Only SITE parameters that change the session state are sent.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testSiteStateCache() throws Exception {
+		final List < String > sent = new ArrayList < String >();
+		FtpZosClient ftpzosClient = new FtpZosClient();
+		ftpzosClient._ftpClient = new FTPClient() {
+			public boolean sendSiteCommand(final String arguments) {
+				sent.add(arguments);
+				return true;
+			}
+		};
+		ftpzosClient.site("FILEtype=SEQ");
+		ftpzosClient.site("FILETYPE=seq");
+		ftpzosClient.site("FILEtype=JES");
+		ftpzosClient.site("RECFM=FB LRECL=80 TRACKS");
+		ftpzosClient.site("RECFM=FB LRECL=133 TRACKS");
+		assertEquals("[FILEtype=SEQ, FILEtype=JES, RECFM=FB LRECL=80 TRACKS,"
+				+ " LRECL=133 TRACKS]", sent.toString());
+	}
+
+	/**
+	 * JES listings run in stream mode and compressed mode is restored even
+	 * when the listing fails.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testListJesRestoresMode() throws Exception {
+		final List < Integer > modes = new ArrayList < Integer >();
+		final boolean[] fail = new boolean[1];
+		FtpZosClient ftpzosClient = new FtpZosClient();
+		ftpzosClient.setCompressedTransfer(true);
+		ftpzosClient._ftpClient = new FTPClient() {
+			public boolean setFileTransferMode(final int mode) {
+				modes.add(mode);
+				return true;
+			}
+			public FTPListParseEngine initiateListParsing(final String parserKey,
+					final String pathname) throws IOException {
+				assertEquals(FtpZosClient.JES_PARSER_KEY, parserKey);
+				if (fail[0]) {
+					throw new IOException("425 Can't open data connection");
+				}
+				return new FTPListParseEngine(null);
+			}
+			public int getReplyCode() {
+				return 250;
+			}
+			public boolean isConnected() {
+				return true;
+			}
+		};
+		assertEquals(0, ftpzosClient.listJes("JOB00001").length);
+		fail[0] = true;
+		try {
+			ftpzosClient.listJes("JOB00001");
+			fail();
+		} catch (IOException e) {
+			assertEquals("425 Can't open data connection", e.getMessage());
+		}
+		assertEquals(Arrays.asList(new Integer[] {FTP.STREAM_TRANSFER_MODE,
+				FTP.COMPRESSED_TRANSFER_MODE, FTP.STREAM_TRANSFER_MODE,
+				FTP.COMPRESSED_TRANSFER_MODE}), modes);
+	}
+
+	/**
+	 * The JES interface level is asked once per session. At level 1, jobs
+	 * are listed without a filter and a missing job is explained.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testJesInterfaceLevel() throws Exception {
+		final List < String > filters = new ArrayList < String >();
+		final String[] statReply = new String[1];
+		final int[] statCount = new int[1];
+		FtpZosClient ftpzosClient = new FtpZosClient();
+		ftpzosClient._ftpClient = new FTPClient() {
+			public boolean sendSiteCommand(final String parameters) {
+				return true;
+			}
+			public int stat() {
+				statCount[0]++;
+				return 211;
+			}
+			public String[] getReplyStrings() {
+				return new String[] {"211-Server FTP talking to host",
+						statReply[0], "211 *** end of status ***"};
+			}
+			public FTPListParseEngine initiateListParsing(final String parserKey,
+					final String pathname) {
+				filters.add(pathname);
+				return new FTPListParseEngine(null);
+			}
+			public int getReplyCode() {
+				return 250;
+			}
+		};
+		statReply[0] = "211-JESINTERFACELEVEL is 1";
+		assertJobNotFound(ftpzosClient, "JESINTERFACELEVEL 1");
+		assertJobNotFound(ftpzosClient, "JESINTERFACELEVEL 1");
+		assertEquals(1, statCount[0]);
+		assertEquals(Arrays.asList(new String[] {null, null}), filters);
+
+		ftpzosClient = new FtpZosClient();
+		filters.clear();
+		statReply[0] = "211-Automatic recall of migrated data sets.";
+		ftpzosClient._ftpClient = new FTPClient() {
+			public boolean sendSiteCommand(final String parameters) {
+				return true;
+			}
+			public int stat() {
+				return 211;
+			}
+			public String[] getReplyStrings() {
+				return new String[] {statReply[0]};
+			}
+			public FTPListParseEngine initiateListParsing(final String parserKey,
+					final String pathname) {
+				filters.add(pathname);
+				return new FTPListParseEngine(null);
+			}
+			public int getReplyCode() {
+				return 250;
+			}
+		};
+		assertJobNotFound(ftpzosClient, "not found in JES");
+		assertEquals(Arrays.asList(new String[] {"JOB00001"}), filters);
+	}
+
+	/**
+	 * Check the status of a job the server does not list.
+	 *
+	 * @param ftpzosClient the client
+	 * @param expected the end of the error message
+	 * @throws Exception if test fails
+	 */
+	private void assertJobNotFound(final FtpZosClient ftpzosClient,
+			final String expected) throws Exception {
+		try {
+			ftpzosClient.getJobStatus("JOB00001");
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Job JOB00001 not found"));
+			assertTrue(e.getMessage(), e.getMessage().indexOf(expected) > 0);
+		}
+	}
+
+	/**
+	 * A server refusing sessions with a 421 reply, at connect or at login,
+	 * signals congestion.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testCongestionReply() throws Exception {
+		assertCongestion(false);
+		assertCongestion(true);
+	}
+
+	/**
+	 * Open a session on a server that replies 421.
+	 *
+	 * @param atLogin true if the server accepts the connection and replies
+	 *            421 to the USER command
+	 * @throws Exception if test fails
+	 */
+	private void assertCongestion(final boolean atLogin) throws Exception {
+		final ServerSocket server = new ServerSocket(0);
+		Thread stub = new Thread(new Runnable() {
+			public void run() {
+				try {
+					Socket socket = server.accept();
+					OutputStream os = socket.getOutputStream();
+					if (atLogin) {
+						os.write("220 Ready\r\n".getBytes("US-ASCII"));
+						os.flush();
+						new BufferedReader(new InputStreamReader(
+								socket.getInputStream(), "US-ASCII")).readLine();
+					}
+					os.write("421 Too many sessions\r\n".getBytes("US-ASCII"));
+					os.flush();
+					socket.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		stub.start();
+		FtpZosClient ftpzosClient = new FtpZosClient();
+		ftpzosClient._ftpClient.setDefaultPort(server.getLocalPort());
+		try {
+			ftpzosClient.open("localhost", "P390", "STREAM2");
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.toString(), UploadEngine.isCongestion(e));
+		} finally {
+			stub.join();
+			server.close();
+		}
+	}
 }
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the JobCheckpoint class.
+ *
+ */
+public class JobCheckpointTest extends TestCase {
+
+	/** A temporary journal file. */
+	private File _file;
+
+	/** Pick a journal file. */
+	protected void setUp() throws Exception {
+		_file = File.createTempFile("legstar", ".checkpoint");
+		_file.delete();
+	}
+
+	/** Remove the journal file. */
+	protected void tearDown() throws Exception {
+		_file.delete();
+	}
+
+	/**
+	 * A journal saved by one run is seen by the next.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testRecordAndReload() throws Exception {
+		JobCheckpoint checkpoint = new JobCheckpoint(_file);
+		checkpoint.record("P390.LIB.CNTL(JOB1)", "aaa", "JOB00012", 0);
+		checkpoint.record("P390.LIB.CNTL(JOB2)", "bbb", "JOB00013", 12);
+		assertTrue(_file.exists());
+
+		checkpoint = new JobCheckpoint(_file);
+		checkpoint.load();
+		assertEquals("JOB00012", checkpoint.getJobId("P390.LIB.CNTL(JOB1)"));
+		assertTrue(checkpoint.isCompleted("P390.LIB.CNTL(JOB1)", "aaa", 4));
+		assertFalse(checkpoint.isCompleted("P390.LIB.CNTL(JOB1)", "changed", 4));
+		assertFalse(checkpoint.isCompleted("P390.LIB.CNTL(JOB2)", "bbb", 4));
+		assertFalse(checkpoint.isCompleted("P390.LIB.CNTL(JOB3)", "ccc", 4));
+
+		checkpoint.reset();
+		assertFalse(_file.exists());
+		assertFalse(checkpoint.isCompleted("P390.LIB.CNTL(JOB1)", "aaa", 4));
+	}
+
+	/**
+	 * Job ID extraction from a held output.
+	 */
+	public void testGetJobId() {
+		FtpZosClient ftpZosClient = new FtpZosClient();
+		assertEquals("JOB01234", ftpZosClient.getJobId(
+				" 14.02.15 JOB01234 ---- WEDNESDAY, 09 SEP 2009 ----"));
+		assertEquals("J0001234", ftpZosClient.getJobId(
+				" 14.02.15 J0001234  $HASP373 P390LSTC STARTED"));
+		assertNull(ftpZosClient.getJobId("no job here"));
+	}
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the JobPurger class.
+ *
+ */
+public class JobPurgerTest extends TestCase {
+
+	/**
+	 * Each policy selects different jobs.
+	 */
+	public void testPolicies() {
+		JobPurger purger = newPurger(JobPurger.NEVER);
+		assertFalse(purger.add("JOB00001", false));
+		assertFalse(purger.add("JOB00002", true));
+		assertEquals(0, purger.size());
+
+		purger = newPurger(JobPurger.KEEP_FAILED);
+		assertTrue(purger.add("JOB00001", false));
+		assertFalse(purger.add("JOB00002", true));
+		assertFalse(purger.add(null, false));
+		assertEquals(1, purger.size());
+
+		purger = newPurger(JobPurger.ALWAYS);
+		assertTrue(purger.add("JOB00001", false));
+		assertTrue(purger.add("JOB00002", true));
+		assertEquals(2, purger.size());
+	}
+
+	/**
+	 * Unknown policies are rejected.
+	 */
+	public void testInvalidPolicy() {
+		try {
+			newPurger("sometimes");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Invalid purge policy sometimes, must be one of never, keepFailed or always",
+					e.getMessage());
+		}
+	}
+
+	/**
+	 * Nothing happens at the end of the run if there is nothing to purge.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testNothingToPurge() throws Exception {
+		JobPurger purger = newPurger(JobPurger.ALWAYS);
+		purger.start();
+		purger.await();
+	}
+
+	/**
+	 * @param policy the purge policy
+	 * @return a new purger
+	 */
+	private JobPurger newPurger(final String policy) {
+		return new JobPurger(policy, new SessionFactory("mainframe", "P390", "STREAM2"),
+				new SystemStreamLog());
+	}
+}
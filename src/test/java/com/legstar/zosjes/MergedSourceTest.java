@@ -0,0 +1,355 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the MergedSource, UploadTracker and UploadPlan classes.
+ *
+ */
+public class MergedSourceTest extends TestCase {
+
+	/** A temporary folder holding one sub folder per module. */
+	private File _modulesFolder;
+
+	/** Create the module trees. */
+	protected void setUp() throws Exception {
+		_modulesFolder = new File(System.getProperty("java.io.tmpdir"),
+				"legstar-modules-" + System.nanoTime());
+		createFile("A/CNTL/LISTCAT", "CNTL/LISTCAT");
+		createFile("A/COBOL/PROG1", "COBOL/PROG1");
+		createFile("B/CNTL/LISTCAT", "CNTL/LISTCAT");
+		createFile("B/CNTL/COMPILE", "CNTL/COMPILE");
+		createFile("B/COBOL/PROG2", "COBOL/PROG2");
+	}
+
+	/** Remove the module trees. */
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(_modulesFolder);
+	}
+
+	/**
+	 * Identical members uploaded by several modules are produced once.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testMergeDuplicates() throws Exception {
+		UploadTracker tracker = new UploadTracker(2);
+		MergedSource source = createSource("P390.LIB", "P390.LIB", tracker);
+		assertEquals("["
+				+ "'P390.LIB.CNTL(COMPILE)', "
+				+ "'P390.LIB.CNTL(LISTCAT)', "
+				+ "'P390.LIB.COBOL(PROG1)', "
+				+ "'P390.LIB.COBOL(PROG2)']",
+				take(source).toString());
+		assertEquals(0, source.getErrors().size());
+		assertEquals(1, source.getDuplicateCount());
+		assertEquals(5, source.getDiscoveredCount());
+		assertEquals("[LISTCAT]", tracker.getFileNames(0, "CNTL").toString());
+		List < String > jcls = tracker.getFileNames(1, "CNTL");
+		Collections.sort(jcls);
+		assertEquals("[COMPILE, LISTCAT]", jcls.toString());
+		assertEquals("[P390.LIB.CNTL, P390.LIB.COBOL]",
+				source.getDatasetNames().toString());
+	}
+
+	/**
+	 * Modules with different prefixes do not interfere.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testMergeDistinctPrefixes() throws Exception {
+		MergedSource source = createSource("P390.A", "P390.B", null);
+		assertEquals(5, take(source).size());
+		assertEquals(0, source.getDuplicateCount());
+		assertEquals("[P390.A.CNTL, P390.A.COBOL, P390.B.CNTL, P390.B.COBOL]",
+				source.getDatasetNames().toString());
+	}
+
+	/**
+	 * Members with the same content as a member of another PDS are copies.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testDeduplicateContent() throws Exception {
+		createFile("A/COBOL/PROG3", "COBOL/PROG1");
+		createFile("B/COPY/PROG1", "COBOL/PROG1");
+		MergedSource source = createSource("P390.A", "P390.B", null);
+		source.setDeduplicateContent(true);
+		List < String > produced = take(source);
+		Map < SourceMember, SourceMember > copies = source.getCopies();
+		assertEquals(7, produced.size() + copies.size());
+		assertTrue(produced.contains("'P390.B.CNTL(COMPILE)'"));
+		assertTrue(produced.contains("'P390.B.COBOL(PROG2)'"));
+
+		/* Scanners are interleaved so either module may upload first */
+		long copiedBytes = 0;
+		List < String > copied = new LinkedList < String >();
+		for (Map.Entry < SourceMember, SourceMember > copy : copies.entrySet()) {
+			assertFalse(copy.getKey().getDatasetName().equals(
+					copy.getValue().getDatasetName()));
+			assertTrue(produced.contains(copy.getValue().getRemoteName()));
+			assertTrue(MergedSource.sameContent(copy.getKey().getFile(),
+					copy.getValue().getFile()));
+			copiedBytes += copy.getKey().getFile().length();
+			copied.add(copy.getKey().getRemoteName());
+		}
+		assertTrue(copied.size() == 2 || copied.size() == 3);
+		assertEquals(copied.contains("'P390.A.COBOL(PROG1)'"),
+				copied.contains("'P390.A.COBOL(PROG3)'"));
+		assertEquals(copiedBytes, source.getCopiedBytes());
+		assertEquals(0, source.getDuplicateCount());
+	}
+
+	/**
+	 * Different files uploaded to the same member are reported.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testMergeConflicts() throws Exception {
+		createFile("B/CNTL/LISTCAT", "CNTL/LISTCAT changed");
+		MergedSource source = createSource("P390.LIB", "P390.LIB", null);
+		List < String > errors = source.validate();
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0).startsWith(
+				"Different files map to 'P390.LIB.CNTL(LISTCAT)': "));
+		assertEquals(0, source.getDuplicateCount());
+	}
+
+	/**
+	 * Jobs wait for their inputs, which may be uploaded by another module.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testTrackUploads() throws Exception {
+		UploadTracker tracker = new UploadTracker(2);
+		MergedSource source = createSource("P390.LIB", "P390.LIB", tracker);
+		List < String > cobol = Arrays.asList(new String[] {"COBOL"});
+		List < SourceMember > members = new LinkedList < SourceMember >();
+		source.start();
+		SourceMember member;
+		while ((member = source.take()) != null) {
+			members.add(member);
+		}
+		assertEquals(4, tracker.getPendingCount());
+		assertFalse(tracker.isUploaded(1, cobol, "CNTL/COMPILE"));
+		for (SourceMember uploaded : members) {
+			if (!uploaded.getFolder().equals("CNTL")) {
+				tracker.uploaded(uploaded);
+			}
+		}
+		assertEquals(2, tracker.getPendingCount());
+		assertFalse(tracker.isUploaded(1, cobol, "CNTL/COMPILE"));
+		assertTrue(tracker.isUploaded(1, cobol, "CNTL/UNKNOWN"));
+		for (SourceMember uploaded : members) {
+			if (uploaded.getMemberName().equals("COMPILE")) {
+				tracker.uploaded(uploaded);
+			}
+		}
+		assertTrue(tracker.awaitUploaded(1, cobol, "CNTL/COMPILE"));
+		assertFalse(tracker.isUploaded(1, null, "CNTL/COMPILE"));
+
+		/* LISTCAT of module B was uploaded by module A */
+		for (SourceMember uploaded : members) {
+			if (uploaded.getMemberName().equals("LISTCAT")) {
+				tracker.uploaded(uploaded);
+			}
+		}
+		assertTrue(tracker.awaitUploaded(1, null, "CNTL/COMPILE"));
+		assertEquals(0, tracker.getPendingCount());
+	}
+
+	/**
+	 * A job declaring its inputs is released once their folders are
+	 * scanned and uploaded, while other folders are still being scanned.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testTrackNarrowInputs() throws Exception {
+		UploadTracker tracker = new UploadTracker(1);
+		List < String > cobol = Arrays.asList(new String[] {"COBOL"});
+		List < String > custCopies = Arrays.asList(new String[] {"COPY/CUST*"});
+		SourceMember compile = createMember("CNTL", "COMPILE");
+		SourceMember prog = createMember("COBOL", "PROG1");
+		tracker.discovered(0, compile);
+		tracker.discovered(0, prog);
+		tracker.uploaded(compile);
+		tracker.uploaded(prog);
+		assertFalse(tracker.isUploaded(0, cobol, "CNTL/COMPILE"));
+		tracker.scanned(0, "CNTL");
+		assertFalse(tracker.isUploaded(0, cobol, "CNTL/COMPILE"));
+		tracker.scanned(0, "COBOL");
+		assertTrue(tracker.awaitUploaded(0, cobol, "CNTL/COMPILE"));
+
+		/* Other folders are still pending */
+		assertFalse(tracker.isUploaded(0, custCopies, "CNTL/COMPILE"));
+		assertFalse(tracker.isUploaded(0, null, "CNTL/COMPILE"));
+		tracker.scanned(0, "COPY");
+		assertTrue(tracker.isUploaded(0, custCopies, "CNTL/COMPILE"));
+		assertFalse(tracker.isUploaded(0, Arrays.asList(new String[] {"**/*"}),
+				"CNTL/COMPILE"));
+		tracker.scanned(0);
+		assertTrue(tracker.isUploaded(0, null, "CNTL/COMPILE"));
+	}
+
+	/**
+	 * A waiting job is released by the upload of its last input, including
+	 * inputs discovered while it waits.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testAwaitInputs() throws Exception {
+		final UploadTracker tracker = new UploadTracker(1);
+		SourceMember compile = createMember("CNTL", "COMPILE");
+		SourceMember prog1 = createMember("COBOL", "PROG1");
+		SourceMember prog2 = createMember("COBOL", "PROG2");
+		tracker.discovered(0, compile);
+		tracker.discovered(0, prog1);
+		final List < Boolean > released = new LinkedList < Boolean >();
+		Thread job = new Thread(new Runnable() {
+			public void run() {
+				try {
+					released.add(tracker.awaitUploaded(0,
+							Arrays.asList(new String[] {"COBOL"}), "CNTL/COMPILE"));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		job.start();
+		tracker.discovered(0, prog2);
+		tracker.scanned(0, "CNTL");
+		tracker.scanned(0, "COBOL");
+		tracker.uploaded(compile);
+		tracker.uploaded(prog1);
+		job.join(200L);
+		assertTrue(job.isAlive());
+		tracker.uploaded(prog2);
+		job.join(5000L);
+		assertFalse(job.isAlive());
+		assertEquals("[true]", released.toString());
+	}
+
+	/**
+	 * Waiting jobs are released when uploads stop.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testTrackClose() throws Exception {
+		final UploadTracker tracker = new UploadTracker(1);
+		Thread closer = new Thread(new Runnable() {
+			public void run() {
+				tracker.close();
+			}
+		});
+		closer.start();
+		assertFalse(tracker.awaitScanned(0, "CNTL"));
+		assertFalse(tracker.awaitUploaded(0, null, "CNTL/LISTCAT"));
+		closer.join();
+	}
+
+	/**
+	 * Uploads registered in a shared plan, an identical registration
+	 * replacing the previous one.
+	 */
+	public void testUploadPlan() {
+		UploadPlan.getShared("test").add(createModule("A", "P390.A"));
+		UploadPlan.getShared("test").add(createModule("B", "P390.B"));
+		UploadPlan.getShared("test").add(createModule("A", "P390.C"));
+		ModuleUpload again = createModule("A", "P390.A");
+		UploadPlan.getShared("test").add(again);
+		List < ModuleUpload > modules = UploadPlan.remove("test").getModules();
+		assertEquals(3, modules.size());
+		assertSame(again, modules.get(0));
+		assertEquals("P390.B", modules.get(1).getRemoteFilesPrefix());
+		assertEquals("P390.C", modules.get(2).getRemoteFilesPrefix());
+		assertEquals(0, UploadPlan.remove("test").getModules().size());
+	}
+
+	/**
+	 * Create a source merging modules A and B.
+	 *
+	 * @param prefixA the target prefix of module A
+	 * @param prefixB the target prefix of module B
+	 * @param tracker notified of discovered members (may be null)
+	 * @return a new source, not started
+	 */
+	private MergedSource createSource(final String prefixA, final String prefixB,
+			final UploadTracker tracker) {
+		List < SourceScanner > scanners = new LinkedList < SourceScanner >();
+		scanners.add(createModule("A", prefixA).createScanner(1));
+		scanners.add(createModule("B", prefixB).createScanner(1));
+		return new MergedSource(scanners, tracker);
+	}
+
+	/**
+	 * Create a module upload.
+	 *
+	 * @param name the module name, also its folder
+	 * @param prefix the target prefix
+	 * @return a new module upload
+	 */
+	private ModuleUpload createModule(final String name, final String prefix) {
+		return new ModuleUpload(name, new File(_modulesFolder, name), prefix,
+				null, null, null, null, null);
+	}
+
+	/**
+	 * Create a member of module A.
+	 *
+	 * @param folder the member folder
+	 * @param name the member name
+	 * @return a new member
+	 */
+	private SourceMember createMember(final String folder, final String name) {
+		return new SourceMember(new File(_modulesFolder, "A/" + folder + '/'
+				+ name), folder, "P390.A." + folder, name);
+	}
+
+	/**
+	 * Consume a merged source.
+	 *
+	 * @param source the source
+	 * @return the sorted remote names produced
+	 * @throws InterruptedException if scan is interrupted
+	 */
+	private List < String > take(final MergedSource source) throws InterruptedException {
+		List < String > remoteNames = new LinkedList < String >();
+		source.start();
+		SourceMember member;
+		while ((member = source.take()) != null) {
+			remoteNames.add(member.getRemoteName());
+		}
+		Collections.sort(remoteNames);
+		return remoteNames;
+	}
+
+	/**
+	 * Create a file in the modules folder.
+	 *
+	 * @param path the relative path of the file
+	 * @param content the file content
+	 * @throws Exception if file cannot be created
+	 */
+	private void createFile(final String path, final String content) throws Exception {
+		FileUtils.writeStringToFile(new File(_modulesFolder, path), content);
+	}
+}
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the SourceScanner class.
+ *
+ */
+public class SourceScannerTest extends TestCase {
+
+	/** A temporary input folder. */
+	private File _inputFolder;
+
+	/** Create a folder tree. */
+	protected void setUp() throws Exception {
+		_inputFolder = new File(System.getProperty("java.io.tmpdir"),
+				"legstar-scanner-" + System.nanoTime());
+		createFile("CNTL/LISTCAT");
+		createFile("CNTL/LISTCAT~");
+		createFile("COBOL/PROG1");
+		createFile("COBOL/COPY/CPY1");
+		createFile(".svn/entries");
+		createFile("README");
+	}
+
+	/** Remove the folder tree. */
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(_inputFolder);
+	}
+
+	/**
+	 * Glob patterns translation.
+	 */
+	public void testGlobPatterns() {
+		assertTrue(SourceScanner.toPattern("**/*.bak").matcher("A/B/X.bak").matches());
+		assertTrue(SourceScanner.toPattern("**/*.bak").matcher("X.bak").matches());
+		assertFalse(SourceScanner.toPattern("*.bak").matcher("A/X.bak").matches());
+		assertTrue(SourceScanner.toPattern("COBOL/**").matcher("COBOL/COPY/X").matches());
+		assertTrue(SourceScanner.toPattern("COBOL/").matcher("COBOL").matches());
+		assertTrue(SourceScanner.toPattern("C?BOL").matcher("COBOL").matches());
+		assertFalse(SourceScanner.toPattern("C?BOL").matcher("C/BOL").matches());
+	}
+
+	/**
+	 * A folder is reported once all files of its tree were consumed.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testFolderListener() throws Exception {
+		SourceScanner scanner = new SourceScanner(_inputFolder, "P390.LIB",
+				null, Arrays.asList(SourceScanner.DEFAULT_EXCLUDES), null, 2, 1);
+		final List < String > taken = new LinkedList < String >();
+		final Map < String, String > scanned = new TreeMap < String, String >();
+		scanner.setFolderListener(new SourceScanner.FolderListener() {
+			public void scanned(final String folder) {
+				List < String > files = new LinkedList < String >();
+				for (String path : taken) {
+					if (path.startsWith(folder + '/')) {
+						files.add(path);
+					}
+				}
+				Collections.sort(files);
+				scanned.put(folder, files.toString());
+			}
+		});
+		scanner.start();
+		SourceMember member;
+		while ((member = scanner.take()) != null) {
+			taken.add(UploadTracker.getPath(member));
+		}
+		assertEquals("{CNTL=[CNTL/LISTCAT], "
+				+ "COBOL=[COBOL/COPY/CPY1, COBOL/PROG1], "
+				+ "COBOL/COPY=[COBOL/COPY/CPY1]}",
+				scanned.toString());
+	}
+
+	/**
+	 * Scan with default excludes and nested folders.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testScanNested() throws Exception {
+		SourceScanner scanner = new SourceScanner(_inputFolder, "P390.LIB",
+				null, Arrays.asList(SourceScanner.DEFAULT_EXCLUDES), null, 2, 1);
+		assertEquals("["
+				+ "'P390.LIB.CNTL(LISTCAT)', "
+				+ "'P390.LIB.COBOL(PROG1)', "
+				+ "'P390.LIB.COBOL.COPY(CPY1)']",
+				scan(scanner).toString());
+		assertEquals(0, scanner.getErrors().size());
+		assertEquals(3, scanner.getDiscoveredCount());
+		assertEquals("[P390.LIB.CNTL, P390.LIB.COBOL, P390.LIB.COBOL.COPY]",
+				scanner.getDatasetNames().toString());
+	}
+
+	/**
+	 * Scan with includes and folder mappings.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testScanIncludesAndMappings() throws Exception {
+		List < FolderMapping > mappings = new LinkedList < FolderMapping >();
+		mappings.add(new FolderMapping("**/COPY", "CPY"));
+		SourceScanner scanner = new SourceScanner(_inputFolder, "P390.LIB",
+				Arrays.asList(new String[] {"COBOL/**"}),
+				Arrays.asList(SourceScanner.DEFAULT_EXCLUDES), mappings, 1, 10);
+		assertEquals("["
+				+ "'P390.LIB.COBOL(PROG1)', "
+				+ "'P390.LIB.CPY(CPY1)']",
+				scan(scanner).toString());
+		assertEquals("P390.LIB.CPY", scanner.getDatasetName("COBOL/COPY"));
+	}
+
+	/**
+	 * Invalid names are reported and not queued.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testScanInvalidNames() throws Exception {
+		SourceScanner scanner = new SourceScanner(_inputFolder, "P390.LIB",
+				null, null, null, 2, 10);
+		List < String > remoteNames = scan(scanner);
+		assertEquals(3, remoteNames.size());
+		List < String > errors = scanner.getErrors();
+		Collections.sort(errors);
+		assertEquals("["
+				+ "Invalid data set name P390.LIB..svn for .svn/entries, "
+				+ "Invalid member name LISTCAT~ for CNTL/LISTCAT~]",
+				errors.toString());
+	}
+
+	/**
+	 * The read stage delivers members with their content.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testReadStage() throws Exception {
+		SourceScanner scanner = new SourceScanner(_inputFolder, "P390.LIB",
+				null, Arrays.asList(SourceScanner.DEFAULT_EXCLUDES), null, 2, 1);
+		MemberReader reader = new MemberReader(scanner, 1);
+		scanner.start();
+		reader.start();
+		List < String > contents = new LinkedList < String >();
+		SourceMember member;
+		while ((member = reader.take()) != null) {
+			contents.add(new String(member.getContent()));
+		}
+		Collections.sort(contents);
+		assertEquals("[CNTL/LISTCAT, COBOL/COPY/CPY1, COBOL/PROG1]", contents.toString());
+		assertNull(reader.getFailure());
+	}
+
+	/**
+	 * Cancelling releases the consumers waiting for a file.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testCancelReleasesConsumers() throws Exception {
+		/* Not started, so consumers wait until cancelled */
+		SourceScanner scanner = new SourceScanner(_inputFolder, "P390.LIB",
+				null, null, null, 1, 1);
+		assertCancelReleases(scanner, scanner);
+
+		scanner = new SourceScanner(_inputFolder, "P390.LIB", null, null, null, 1, 1);
+		MemberReader reader = new MemberReader(scanner, 1);
+		reader.start();
+		assertCancelReleases(reader, reader);
+	}
+
+	/**
+	 * Check that a consumer waiting on a stage gets the end of the stage when
+	 * it is cancelled.
+	 *
+	 * @param consumed the stage consumed
+	 * @param cancelled the stage to cancel
+	 * @throws Exception if test fails
+	 */
+	private void assertCancelReleases(final MemberSource consumed,
+			final MemberSource cancelled) throws Exception {
+		final List < SourceMember > taken = new LinkedList < SourceMember >();
+		Thread consumer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					taken.add(consumed.take());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		consumer.start();
+		Thread.sleep(200L);
+		assertTrue(consumer.isAlive());
+		cancelled.cancel();
+		consumer.join(5000L);
+		assertFalse(consumer.isAlive());
+		assertEquals(1, taken.size());
+		assertNull(taken.get(0));
+	}
+
+	/**
+	 * Consume a scan.
+	 *
+	 * @param scanner the scanner
+	 * @return the sorted remote names discovered
+	 * @throws InterruptedException if scan is interrupted
+	 */
+	private List < String > scan(final SourceScanner scanner) throws InterruptedException {
+		List < String > remoteNames = new LinkedList < String >();
+		scanner.start();
+		SourceMember member;
+		while ((member = scanner.take()) != null) {
+			remoteNames.add(member.getRemoteName());
+		}
+		Collections.sort(remoteNames);
+		return remoteNames;
+	}
+
+	/**
+	 * Create an empty file in the input folder.
+	 *
+	 * @param path the relative path of the file
+	 * @throws Exception if file cannot be created
+	 */
+	private void createFile(final String path) throws Exception {
+		FileUtils.writeStringToFile(new File(_inputFolder, path), path);
+	}
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the TokenBucket and Throttle classes.
+ *
+ */
+public class TokenBucketTest extends TestCase {
+
+	/**
+	 * Transfers within the burst capacity do not wait.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testBurst() throws Exception {
+		TokenBucket bucket = new TokenBucket(1000, 4000);
+		long start = System.currentTimeMillis();
+		bucket.acquire(4000);
+		assertTrue(System.currentTimeMillis() - start < 500);
+		assertEquals(4000, bucket.getTotalBytes());
+	}
+
+	/**
+	 * Transfers beyond the burst capacity wait for the bucket to refill.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testRateLimit() throws Exception {
+		TokenBucket bucket = new TokenBucket(10000, 1000);
+		long start = System.currentTimeMillis();
+		bucket.acquire(1000);
+		bucket.acquire(2000);
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("elapsed " + elapsed, elapsed >= 150);
+		assertTrue(bucket.getAchievedRate() <= 20000);
+	}
+
+	/**
+	 * An unlimited bucket only counts bytes.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testThrottledStreams() throws Exception {
+		TokenBucket bucket = new TokenBucket(0, 1);
+		Throttle throttle = new Throttle(bucket);
+		InputStream is = throttle.wrap(new ByteArrayInputStream(new byte[300]));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[128];
+		int count;
+		while ((count = is.read(buffer)) > 0) {
+			throttle.wrap(baos).write(buffer, 0, count);
+		}
+		assertEquals(300, baos.size());
+		assertEquals(600, bucket.getTotalBytes());
+		assertSame(is, Throttle.NONE.wrap(is));
+	}
+
+	/**
+	 * Time spent waiting for buckets is accounted to the waiting thread.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testWaitedNanos() throws Exception {
+		Throttle throttle = new Throttle(new TokenBucket(10000, 1000));
+		long waited = Throttle.getWaitedNanos();
+		throttle.acquire(1000);
+		throttle.acquire(2000);
+		long elapsed = (Throttle.getWaitedNanos() - waited) / 1000000L;
+		assertTrue("elapsed " + elapsed, elapsed >= 150);
+	}
+
+	/**
+	 * Shared buckets are the same for the same settings.
+	 */
+	public void testShared() {
+		TokenBucket bucket = TokenBucket.getShared("test", 1000, 100);
+		assertSame(bucket, TokenBucket.getShared("test", 1000, 100));
+		assertNotSame(bucket, TokenBucket.getShared("test", 2000, 100));
+	}
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the TraceRecorder class.
+ *
+ */
+public class TraceRecorderTest extends TestCase {
+
+	/**
+	 * A disabled recorder records nothing.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testDisabled() throws Exception {
+		TraceRecorder tracer = TraceRecorder.DISABLED;
+		assertFalse(tracer.isEnabled());
+		assertEquals(0, tracer.newTrack("submit"));
+		tracer.end(0, "store", tracer.begin(), 80, "'P390.LIB.CNTL(LISTCAT)'", null);
+		assertEquals(0, tracer.size());
+		StringWriter writer = new StringWriter();
+		tracer.write(writer);
+		assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n]}\n", writer.toString());
+	}
+
+	/**
+	 * Spans are written with their track and arguments, oldest dropped first.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testRingBuffer() throws Exception {
+		TraceRecorder tracer = new TraceRecorder(2);
+		int track = tracer.newTrack("zosupload-0");
+		assertEquals(1, track);
+		tracer.end(track, "connect", tracer.begin());
+		tracer.end(track, "store", tracer.begin(), 80, "'P390.LIB.CNTL(LISTCAT)'", null);
+		tracer.end(track, "wait", tracer.begin(), 1024, "'P390.LIB.CNTL(LISTCAT)'", "JOB00012");
+		assertEquals(2, tracer.size());
+
+		StringWriter writer = new StringWriter();
+		tracer.write(writer);
+		String json = writer.toString();
+		assertTrue(json.contains("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1,"
+				+ "\"args\":{\"name\":\"zosupload-0\"}}"));
+		assertFalse(json.contains("\"connect\""));
+		assertTrue(json.contains("\"args\":{\"bytes\":80,\"resource\":\"'P390.LIB.CNTL(LISTCAT)'\"}}"));
+		assertTrue(json.contains("\"args\":{\"bytes\":1024,\"resource\":\"'P390.LIB.CNTL(LISTCAT)'\","
+				+ "\"jobId\":\"JOB00012\"}}"));
+	}
+
+	/**
+	 * Spans ended after the trace is written are ignored.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testClosed() throws Exception {
+		TraceRecorder tracer = new TraceRecorder(4);
+		int track = tracer.newTrack("zosupload-0");
+		tracer.end(track, "connect", tracer.begin());
+		tracer.write(new StringWriter());
+		tracer.end(track, "store", tracer.begin(), 80, "'P390.LIB.CNTL(LISTCAT)'", null);
+		assertEquals(1, tracer.size());
+	}
+}
@@ -0,0 +1,550 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+
+import junit.framework.TestCase;
+
+/**
+ * Run the whole upload pipeline of the plugin against a fake z/OS host.
+ *
+ */
+public class ZosUploadMojoPipelineTest extends TestCase {
+
+	/** A temporary folder holding one sub folder per module. */
+	private File _modulesFolder;
+
+	/** The fake z/OS host. */
+	private FakeHost _host;
+
+	/** Unique suffix of the reactor project names of a test. */
+	private String _suffix;
+
+	/** Create the module trees. */
+	protected void setUp() throws Exception {
+		_modulesFolder = new File(System.getProperty("java.io.tmpdir"),
+				"legstar-pipeline-" + System.nanoTime());
+		_host = new FakeHost();
+		_suffix = Long.toString(System.nanoTime());
+		createFile("A/CNTL/COMPILE", "//COMPILE JOB");
+		createFile("A/COBOL/PROG1", "PROG1");
+		createFile("A/COPY/CPY1", "CPY1");
+		createFile("B/CNTL/LISTCAT", "//LISTCAT JOB");
+		createFile("B/COPY/CPY1", "CPY1");
+	}
+
+	/** Remove the module trees. */
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(_modulesFolder);
+	}
+
+	/**
+	 * Modules register their trees and the last project declaring the
+	 * plugin uploads them all, members shared by modules being sent once.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testAggregate() throws Exception {
+		MavenProject projectA = createProject("a", true);
+		MavenProject projectB = createProject("b", true);
+		List < MavenProject > reactor = Arrays.asList(new MavenProject[] {
+				projectA, projectB, createProject("c", false)});
+
+		ZosUploadMojo mojoA = createMojo("A", "P390.LIB");
+		mojoA.aggregate = true;
+		mojoA.project = projectA;
+		mojoA.reactorProjects = reactor;
+		mojoA.execute();
+		assertEquals(0, _host.getSessionCount());
+
+		ZosUploadMojo mojoB = createMojo("B", "P390.LIB");
+		mojoB.aggregate = true;
+		mojoB.project = projectB;
+		mojoB.reactorProjects = reactor;
+		mojoB.execute();
+		assertEquals("['P390.LIB.CNTL(COMPILE)', 'P390.LIB.CNTL(LISTCAT)', "
+				+ "'P390.LIB.COBOL(PROG1)', 'P390.LIB.COPY(CPY1)']",
+				_host.getMembers().keySet().toString());
+		assertEquals(4, _host.getUploadCount());
+		assertEquals(new HashSet < String >(Arrays.asList(new String[] {
+				"'P390.LIB.CNTL(COMPILE)'", "'P390.LIB.CNTL(LISTCAT)'"})),
+				new HashSet < String >(_host.getSubmitted()));
+	}
+
+	/**
+	 * Each execution of the plugin in a module registers its own upload.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testAggregateExecutions() throws Exception {
+		MavenProject projectA = createProject("a", true);
+		MavenProject projectB = createProject("b", true);
+		List < MavenProject > reactor = Arrays.asList(new MavenProject[] {
+				projectA, projectB});
+
+		ZosUploadMojo mojoA = createMojo("A", "P390.A");
+		mojoA.aggregate = true;
+		mojoA.project = projectA;
+		mojoA.reactorProjects = reactor;
+		mojoA.execute();
+		ZosUploadMojo mojoA2 = createMojo("A", "P390.A2");
+		mojoA2.aggregate = true;
+		mojoA2.project = projectA;
+		mojoA2.reactorProjects = reactor;
+		mojoA2.execute();
+		assertEquals(0, _host.getSessionCount());
+
+		ZosUploadMojo mojoB = createMojo("B", "P390.B");
+		mojoB.aggregate = true;
+		mojoB.project = projectB;
+		mojoB.reactorProjects = reactor;
+		mojoB.execute();
+		assertEquals("['P390.A.CNTL(COMPILE)', 'P390.A.COBOL(PROG1)', "
+				+ "'P390.A.COPY(CPY1)', 'P390.A2.CNTL(COMPILE)', "
+				+ "'P390.A2.COBOL(PROG1)', 'P390.A2.COPY(CPY1)', "
+				+ "'P390.B.CNTL(LISTCAT)', 'P390.B.COPY(CPY1)']",
+				_host.getMembers().keySet().toString());
+	}
+
+	/**
+	 * Without a project declaring the plugin, nothing would run the plan,
+	 * so each module is uploaded on its own.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testAggregateWithoutDeclaringProject() throws Exception {
+		MavenProject projectA = createProject("a", false);
+		ZosUploadMojo mojoA = createMojo("A", "P390.A");
+		mojoA.aggregate = true;
+		mojoA.project = projectA;
+		mojoA.reactorProjects = Arrays.asList(new MavenProject[] {projectA,
+				createProject("b", false)});
+		mojoA.execute();
+		assertEquals(3, _host.getUploadCount());
+		assertEquals("['P390.A.CNTL(COMPILE)']", _host.getSubmitted().toString());
+	}
+
+	/**
+	 * A job declaring its inputs is submitted once they are uploaded, and a
+	 * listed JCL without a local file is submitted without being journaled.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testJobDependencies() throws Exception {
+		ZosUploadMojo mojo = createMojo("A", "P390.A");
+		mojo.jobDependencies = new ArrayList < JobDependency >();
+		mojo.jobDependencies.add(new JobDependency("COMPILE",
+				Arrays.asList(new String[] {"COBOL"})));
+		mojo.jclFileNames = Arrays.asList(new String[] {"COMPILE", "REMOTE"});
+		mojo.checkpointFile = new File(_modulesFolder, "checkpoint");
+		mojo.execute();
+		assertEquals("['P390.A.CNTL(COMPILE)', 'P390.A.CNTL(REMOTE)']",
+				_host.getSubmitted().toString());
+		assertTrue(_host.getUploadedBefore("'P390.A.CNTL(COMPILE)'").contains(
+				"'P390.A.COBOL(PROG1)'"));
+		JobCheckpoint checkpoint = new JobCheckpoint(mojo.checkpointFile);
+		checkpoint.load();
+		assertEquals("JOB00001", checkpoint.getJobId("P390.A.CNTL(COMPILE)"));
+		assertNull(checkpoint.getJobId("P390.A.CNTL(REMOTE)"));
+	}
+
+	/**
+	 * A resumed run skips the jobs that already succeeded. Job output is
+	 * kept unless a purge policy is set.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testResume() throws Exception {
+		createFile("A/CNTL/LINK", "//LINK JOB");
+		_host.setCondCode("'P390.A.CNTL(LINK)'", 8);
+		ZosUploadMojo mojo = createMojo("A", "P390.A");
+		mojo.checkpointFile = new File(_modulesFolder, "checkpoint");
+		mojo.resume = true;
+		try {
+			mojo.execute();
+			fail();
+		} catch (MojoFailureException e) {
+			assertEquals("Job submitted to z/OS failed.  Highest condition code: 8",
+					e.getMessage());
+		}
+		assertEquals(0, _host.getPurged().size());
+		_host.setCondCode("'P390.A.CNTL(LINK)'", 0);
+		mojo = createMojo("A", "P390.A");
+		mojo.checkpointFile = new File(_modulesFolder, "checkpoint");
+		mojo.resume = true;
+		mojo.purgePolicy = JobPurger.KEEP_FAILED;
+		mojo.execute();
+		assertEquals("['P390.A.CNTL(COMPILE)', 'P390.A.CNTL(LINK)', "
+				+ "'P390.A.CNTL(LINK)']", _host.getSubmitted().toString());
+		assertEquals("[JOB00003]", _host.getPurged().toString());
+	}
+
+	/**
+	 * Members with the same content as a member uploaded to another PDS are
+	 * copied on z/OS.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testCopyJob() throws Exception {
+		createFile("A/COPY/CPY2", "PROG1");
+		ZosUploadMojo mojo = createMojo("A", "P390.A");
+		mojo.deduplicateContent = true;
+		mojo.execute();
+		assertEquals(3, _host.getUploadCount());
+		assertEquals(1, _host.getCopyJobs().size());
+		String jcl = _host.getCopyJobs().get(0);
+		assertTrue(jcl, jcl.startsWith("//P390C    JOB CLASS=A,MSGCLASS=X\n"));
+		assertTrue(jcl, jcl.indexOf("DSN=P390.A.COBOL\n") > -1);
+
+		/* Either member may be scanned, and uploaded, first */
+		assertTrue(jcl, jcl.indexOf("  SELECT MEMBER=((PROG1,CPY2,R))\n") > -1
+				|| jcl.indexOf("  SELECT MEMBER=((CPY2,PROG1,R))\n") > -1);
+		assertEquals("['P390.A.CNTL(COMPILE)']", _host.getSubmitted().toString());
+	}
+
+	/**
+	 * Missing PDSs are allocated before the first member is uploaded to
+	 * them, including those that only receive copies.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testAllocateDatasets() throws Exception {
+		createFile("A/COPY2/CPY2", "PROG1");
+		_host.setDatasets(new HashSet < String >(Arrays.asList(new String[] {
+				"P390.A.CNTL"})));
+		ZosUploadMojo mojo = createMojo("A", "P390.A");
+		mojo.allocateDatasets = true;
+		mojo.deduplicateContent = true;
+		mojo.execute();
+		List < String > allocated = _host.getAllocated();
+		Collections.sort(allocated);
+		assertEquals("[P390.A.COBOL, P390.A.COPY, P390.A.COPY2]", allocated.toString());
+		assertEquals(1, _host.getCopyJobs().size());
+	}
+
+	/**
+	 * An invalid name stops the run and no job is submitted.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testInvalidName() throws Exception {
+		createFile("A/COBOL/PROGRAM12", "PROG1");
+		ZosUploadMojo mojo = createMojo("A", "P390.A");
+		try {
+			mojo.execute();
+			fail();
+		} catch (MojoFailureException e) {
+			assertEquals("Scan of " + mojo.inputFolder + " found 1 invalid file names",
+					e.getMessage());
+		}
+		assertEquals(0, _host.getSubmitted().size());
+	}
+
+	/**
+	 * Create a mojo uploading a module to the fake host.
+	 *
+	 * @param module the module folder
+	 * @param prefix the target prefix
+	 * @return a new mojo
+	 */
+	private ZosUploadMojo createMojo(final String module, final String prefix) {
+		ZosUploadMojo mojo = new ZosUploadMojo() {
+			protected SessionFactory newSessionFactory() {
+				return new SessionFactory(hostName, hostUserId, hostPassword) {
+					protected ZosTransport createSession() {
+						return _host.new FakeSession();
+					}
+				};
+			}
+		};
+		mojo.hostName = "mainframe";
+		mojo.hostUserId = "P390";
+		mojo.hostPassword = "secret";
+		mojo.inputFolder = new File(_modulesFolder, module);
+		mojo.remoteFilesPrefix = prefix;
+		return mojo;
+	}
+
+	/**
+	 * Create a reactor project.
+	 *
+	 * @param artifactId the project artifact ID
+	 * @param declaresPlugin whether the project build declares the plugin
+	 * @return a new project
+	 */
+	private MavenProject createProject(final String artifactId,
+			final boolean declaresPlugin) {
+		Model model = new Model();
+		model.setGroupId("com.example");
+		model.setArtifactId(artifactId + _suffix);
+		model.setVersion("1.0");
+		model.setBuild(new Build());
+		if (declaresPlugin) {
+			Plugin plugin = new Plugin();
+			plugin.setGroupId("com.legsem.legstar");
+			plugin.setArtifactId("zosupload-maven-plugin");
+			model.getBuild().addPlugin(plugin);
+		}
+		return new MavenProject(model);
+	}
+
+	/**
+	 * Create a file in the modules folder.
+	 *
+	 * @param path the relative path of the file
+	 * @param content the file content
+	 * @throws Exception if file cannot be created
+	 */
+	private void createFile(final String path, final String content) throws Exception {
+		FileUtils.writeStringToFile(new File(_modulesFolder, path), content);
+	}
+
+	/**
+	 * A z/OS host that keeps uploaded members and runs jobs instantly.
+	 */
+	private static class FakeHost {
+
+		/** Uploaded members content, sorted by remote name. */
+		private final Map < String, String > _members = new TreeMap < String, String >();
+
+		/** Number of uploads. */
+		private int _uploadCount;
+
+		/** Submitted JCL members, in order. */
+		private final List < String > _submitted = new ArrayList < String >();
+
+		/** Members uploaded before each JCL member was submitted. */
+		private final Map < String, Set < String > > _uploadedBefore = new LinkedHashMap < String, Set < String > >();
+
+		/** Copy jobs JCL, in order. */
+		private final List < String > _copyJobs = new ArrayList < String >();
+
+		/** Condition codes of the jobs that do not end with 0. */
+		private final Map < String, Integer > _condCodes = new LinkedHashMap < String, Integer >();
+
+		/** Job outputs by job ID. */
+		private final Map < String, String > _outputs = new LinkedHashMap < String, String >();
+
+		/** Existing PDSs, null if they all exist. */
+		private Set < String > _datasets;
+
+		/** Allocated PDSs, in order. */
+		private final List < String > _allocated = new ArrayList < String >();
+
+		/** Purged job IDs, in order. */
+		private final List < String > _purged = new ArrayList < String >();
+
+		/** Number of sessions opened. */
+		private int _sessionCount;
+
+		/**
+		 * @param jclMember the JCL member
+		 * @param condCode the condition code of its job
+		 */
+		public synchronized void setCondCode(final String jclMember, final int condCode) {
+			_condCodes.put(jclMember, condCode);
+		}
+
+		/**
+		 * @param jobName the job name
+		 * @param condCode the condition code
+		 * @return the job ID of a new job that ran
+		 */
+		private synchronized String run(final String jobName, final int condCode) {
+			String jobId = String.format("JOB%05d", _outputs.size() + 1);
+			_outputs.put(jobId, " 10.21.45 " + jobId + "  $HASP373 " + jobName
+					+ " STARTED - INIT 1\n"
+					+ String.format("IEF142I %s STEP - STEP WAS EXECUTED - COND CODE %04d\n",
+							jobName, condCode));
+			return jobId;
+		}
+
+		/** @return the uploaded members content, sorted by remote name */
+		public synchronized Map < String, String > getMembers() {
+			return _members;
+		}
+
+		/** @return the number of uploads */
+		public synchronized int getUploadCount() {
+			return _uploadCount;
+		}
+
+		/** @return the submitted JCL members, in order */
+		public synchronized List < String > getSubmitted() {
+			return new ArrayList < String >(_submitted);
+		}
+
+		/**
+		 * @param jclMember a JCL member
+		 * @return the members uploaded before it was last submitted
+		 */
+		public synchronized Set < String > getUploadedBefore(final String jclMember) {
+			return _uploadedBefore.get(jclMember);
+		}
+
+		/** @return the copy jobs JCL, in order */
+		public synchronized List < String > getCopyJobs() {
+			return _copyJobs;
+		}
+
+		/**
+		 * @param datasets the existing PDSs, null if they all exist
+		 */
+		public synchronized void setDatasets(final Set < String > datasets) {
+			_datasets = datasets;
+		}
+
+		/** @return the allocated PDSs, in order */
+		public synchronized List < String > getAllocated() {
+			return new ArrayList < String >(_allocated);
+		}
+
+		/** @return the purged job IDs, in order */
+		public synchronized List < String > getPurged() {
+			return new ArrayList < String >(_purged);
+		}
+
+		/** @return the number of sessions opened */
+		public synchronized int getSessionCount() {
+			return _sessionCount;
+		}
+
+		/**
+		 * A session on the fake host.
+		 */
+		private class FakeSession implements ZosTransport {
+
+			/** Whether the session is open. */
+			private boolean _connected;
+
+			/** {@inheritDoc} */
+			public void setTracer(final TraceRecorder tracer, final int track) {
+			}
+
+			/** {@inheritDoc} */
+			public void setThrottles(final Throttle uploadThrottle, final Throttle downloadThrottle) {
+			}
+
+			/** {@inheritDoc} */
+			public void open(final String hostName, final String hostUserID,
+					final String hostPassword) {
+				synchronized (FakeHost.this) {
+					_sessionCount++;
+				}
+				_connected = true;
+			}
+
+			/** {@inheritDoc} */
+			public boolean isConnected() {
+				return _connected;
+			}
+
+			/** {@inheritDoc} */
+			public void upload(final String remote, final File local) throws IOException {
+				upload(remote, FileUtils.readFileToByteArray(local));
+			}
+
+			/** {@inheritDoc} */
+			public void upload(final String remote, final byte[] content) throws IOException {
+				synchronized (FakeHost.this) {
+					String datasetName = remote.substring(1, remote.indexOf('('));
+					if (_datasets != null && !_datasets.contains(datasetName)) {
+						throw new IOException("550 Data set " + datasetName + " not found");
+					}
+					_members.put(remote, new String(content));
+					_uploadCount++;
+				}
+			}
+
+			/** {@inheritDoc} */
+			public boolean isPartitionedDataset(final String datasetName) {
+				synchronized (FakeHost.this) {
+					return _datasets == null || _datasets.contains(datasetName);
+				}
+			}
+
+			/** {@inheritDoc} */
+			public void allocatePds(final String datasetName, final String recfm,
+					final int lrecl, final int primary, final int secondary,
+					final int directory) {
+				synchronized (FakeHost.this) {
+					_datasets.add(datasetName);
+					_allocated.add(datasetName);
+				}
+			}
+
+			/** {@inheritDoc} */
+			public String submitJob(final String jcl) {
+				synchronized (FakeHost.this) {
+					_copyJobs.add(jcl);
+				}
+				return run("P390C", 0);
+			}
+
+			/** {@inheritDoc} */
+			public String submitWaitForOutput(final String remoteFile) throws IOException {
+				Integer condCode;
+				synchronized (FakeHost.this) {
+					_submitted.add(remoteFile);
+					_uploadedBefore.put(remoteFile, new HashSet < String >(_members.keySet()));
+					condCode = _condCodes.get(remoteFile);
+				}
+				return getJobOutput(run("P390J", (condCode == null) ? 0 : condCode));
+			}
+
+			/** {@inheritDoc} */
+			public String getJobStatus(final String jobId) {
+				return STATUS_OUTPUT;
+			}
+
+			/** {@inheritDoc} */
+			public String getJobOutput(final String jobId) throws IOException {
+				synchronized (FakeHost.this) {
+					String output = _outputs.get(jobId);
+					if (output == null) {
+						throw new IOException("Job " + jobId + " not found in JES");
+					}
+					return output;
+				}
+			}
+
+			/** {@inheritDoc} */
+			public void purgeJob(final String jobId) {
+				synchronized (FakeHost.this) {
+					_purged.add(jobId);
+				}
+			}
+
+			/** {@inheritDoc} */
+			public void close() {
+				_connected = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,437 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the ZosmfRestClient class against a local stub of the z/OSMF REST
+ * services.
+ *
+ */
+public class ZosmfRestClientTest extends TestCase {
+
+	/** Held output of the stub job. */
+	private static final String JESMSGLG =
+		" 10.21.45 JOB00123 ---- MONDAY,    19 OCT 2009 ----\n"
+		+ " 10.21.45 JOB00123  $HASP373 P390LSTC STARTED - INIT 1\n";
+
+	/** System messages of the stub job. */
+	private static final String JESYSMSG =
+		"IEF142I P390LSTC STEPLC - STEP WAS EXECUTED - COND CODE 0004\n";
+
+	/** The stub server. */
+	private StubServer _server;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		_server = new StubServer();
+		_server.start();
+	}
+
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		_server.stop();
+	}
+
+	/**
+	 * Upload members, allocate a data set, submit a job, wait for it and
+	 * purge it, all over a single kept alive connection.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testSession() throws Exception {
+		ZosmfRestClient client = new ZosmfRestClient();
+		client.setPollInterval(10L);
+		client.open(_server.getUrl(), "P390", "secret");
+		assertTrue(client.isConnected());
+		assertEquals("Basic UDM5MDpzZWNyZXQ=", _server.getLastHeader("authorization"));
+		assertEquals("true", _server.getLastHeader("x-csrf-zosmf-header"));
+
+		client.upload("'P390.LIB.COBOL(PROG1)'", "       PROCEDURE DIVISION.\n".getBytes());
+		assertEquals("       PROCEDURE DIVISION.\n",
+				_server.getMembers().get("P390.LIB.COBOL(PROG1)"));
+
+		assertTrue(client.isPartitionedDataset("P390.LIB.COBOL"));
+		assertFalse(client.isPartitionedDataset("P390.LIB.NEW"));
+		client.allocatePds("P390.LIB.NEW", "FB", 80, 15, 15, 20);
+		assertTrue(_server.getLastBody().indexOf("\"blksize\":27920") > -1);
+		assertTrue(_server.getLastBody().indexOf("\"dsntype\":\"LIBRARY\"") > -1);
+
+		String output = client.submitWaitForOutput("'P390.LIB.CNTL(LISTCAT)'");
+		assertEquals("{\"file\":\"//'P390.LIB.CNTL(LISTCAT)'\"}", _server.getSubmitted());
+		assertEquals(JESMSGLG + JESYSMSG, output);
+		assertEquals("JOB00123", JobOutputAnalyzer.getJobId(output));
+		assertEquals(4, JobOutputAnalyzer.getHighestCondCode(output));
+
+		client.purgeJob("JOB00123");
+		assertEquals("DELETE /zosmf/restjobs/jobs/P390LSTC/JOB00123", _server.getLastRequest());
+		client.close();
+		assertFalse(client.isConnected());
+
+		assertEquals(1, _server.getConnectionCount());
+	}
+
+	/**
+	 * Jobs submitted by another session are looked up by job ID.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testJobLookup() throws Exception {
+		ZosmfRestClient client = new ZosmfRestClient();
+		client.open(_server.getUrl(), "P390", "secret");
+		assertEquals(ZosTransport.STATUS_ACTIVE, client.getJobStatus("JOB00123"));
+		assertEquals(ZosTransport.STATUS_OUTPUT, client.getJobStatus("JOB00123"));
+		assertEquals(JESMSGLG + JESYSMSG, client.getJobOutput("JOB00123"));
+		try {
+			client.getJobStatus("JOB99999");
+			fail();
+		} catch (IOException e) {
+			assertEquals("Job JOB99999 not found in JES", e.getMessage());
+		}
+	}
+
+	/**
+	 * Errors carry the HTTP status and the z/OSMF message.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testErrors() throws Exception {
+		ZosmfRestClient client = new ZosmfRestClient();
+		try {
+			client.open(_server.getUrl(), "P390", "wrong");
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("401 "));
+		}
+		assertEquals("GET /zosmf/restjobs/jobs?owner=P390&max-jobs=1", _server.getLastRequest());
+		assertFalse(client.isConnected());
+		client.open(_server.getUrl(), "P390", "secret");
+		try {
+			client.upload("'P390.NOPE(PROG1)'", new byte[1]);
+			fail();
+		} catch (IOException e) {
+			assertEquals("404 Not Found PUT /zosmf/restfiles/ds/P390.NOPE(PROG1):"
+					+ " Data set not found", e.getMessage());
+		}
+		_server.setBusy(true);
+		try {
+			client.upload("'P390.LIB.COBOL(PROG1)'", new byte[1]);
+			fail();
+		} catch (IOException e) {
+			assertTrue(UploadEngine.isCongestion(e));
+		}
+	}
+
+	/**
+	 * Sessions of the ZOSMF kind come out of the session factory.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testSessionFactory() throws Exception {
+		SessionFactory sessions = new SessionFactory(_server.getUrl(), "P390", "secret");
+		sessions.setTransport(SessionFactory.ZOSMF);
+		ZosTransport session = sessions.openSession(0);
+		assertTrue(session instanceof ZosmfRestClient);
+		session.close();
+		try {
+			sessions.setTransport("smoke signals");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Invalid transport smoke signals, must be one of ftp or zosmf",
+					e.getMessage());
+		}
+	}
+
+	/**
+	 * A minimal HTTP/1.1 server with persistent connections that mimics the
+	 * z/OSMF services used.
+	 */
+	private static class StubServer implements Runnable {
+
+		/** The listening socket. */
+		private final ServerSocket _serverSocket;
+
+		/** Number of connections accepted. */
+		private int _connectionCount;
+
+		/** Uploaded members content, keyed by name. */
+		private final Map < String, String > _members = Collections
+				.synchronizedMap(new HashMap < String, String >());
+
+		/** Last request line. */
+		private String _lastRequest;
+
+		/** Last request headers, keyed by lower case name. */
+		private Map < String, String > _lastHeaders;
+
+		/** Last request body. */
+		private String _lastBody;
+
+		/** Last job submit request body. */
+		private String _submitted;
+
+		/** Number of status requests so far. */
+		private int _statusCount;
+
+		/** When set all requests are rejected as if the server was busy. */
+		private volatile boolean _busy;
+
+		/**
+		 * @throws IOException if no port is available
+		 */
+		StubServer() throws IOException {
+			_serverSocket = new ServerSocket(0);
+		}
+
+		/**
+		 * Start accepting connections.
+		 */
+		void start() {
+			Thread thread = new Thread(this, "stub-zosmf");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Stop accepting connections.
+		 *
+		 * @throws IOException if close fails
+		 */
+		void stop() throws IOException {
+			_serverSocket.close();
+		}
+
+		/**
+		 * @return the server URL
+		 */
+		String getUrl() {
+			return "http://localhost:" + _serverSocket.getLocalPort() + "/";
+		}
+
+		/** {@inheritDoc} */
+		public void run() {
+			try {
+				while (true) {
+					final Socket socket = _serverSocket.accept();
+					synchronized (this) {
+						_connectionCount++;
+					}
+					Thread thread = new Thread(new Runnable() {
+						public void run() {
+							serve(socket);
+						}
+					});
+					thread.setDaemon(true);
+					thread.start();
+				}
+			} catch (IOException e) {
+				// Server stopped
+			}
+		}
+
+		/**
+		 * Serve requests on a connection until the client closes it.
+		 *
+		 * @param socket the connection
+		 */
+		private void serve(final Socket socket) {
+			try {
+				InputStream is = new BufferedInputStream(socket.getInputStream());
+				OutputStream os = socket.getOutputStream();
+				String requestLine;
+				while ((requestLine = readLine(is)) != null) {
+					Map < String, String > headers = new HashMap < String, String >();
+					String line;
+					while ((line = readLine(is)) != null && line.length() > 0) {
+						int colon = line.indexOf(':');
+						headers.put(line.substring(0, colon).trim().toLowerCase(),
+								line.substring(colon + 1).trim());
+					}
+					byte[] body = new byte[headers.containsKey("content-length")
+							? Integer.parseInt(headers.get("content-length")) : 0];
+					for (int n = 0; n < body.length;) {
+						n += is.read(body, n, body.length - n);
+					}
+					String[] request = requestLine.split(" ");
+					String[] response = respond(request[0], request[1], headers,
+							new String(body, "UTF-8"));
+					byte[] content = response[1].getBytes("UTF-8");
+					os.write(("HTTP/1.1 " + response[0] + "\r\n"
+							+ "Content-Type: application/json\r\n"
+							+ "Content-Length: " + content.length + "\r\n\r\n")
+							.getBytes("US-ASCII"));
+					os.write(content);
+					os.flush();
+				}
+				socket.close();
+			} catch (IOException e) {
+				// Connection dropped
+			}
+		}
+
+		/**
+		 * Mimic z/OSMF.
+		 *
+		 * @param method the HTTP method
+		 * @param path the request path
+		 * @param headers the request headers
+		 * @param body the request body
+		 * @return the status line and the response body
+		 */
+		private synchronized String[] respond(final String method,
+				final String path, final Map < String, String > headers,
+				final String body) {
+			_lastRequest = method + " " + path;
+			_lastHeaders = headers;
+			_lastBody = body;
+			String jobPath = "/zosmf/restjobs/jobs/P390LSTC/JOB00123";
+			if (_busy) {
+				return new String[] {"503 Service Unavailable", ""};
+			}
+			if (path.equals("/zosmf/info")) {
+				/* Needs no authentication */
+				return new String[] {"200 OK", "{\"zosmf_version\":\"27\"}"};
+			}
+			if (!"Basic UDM5MDpzZWNyZXQ=".equals(headers.get("authorization"))) {
+				return new String[] {"401 Unauthorized", ""};
+			}
+			if (path.equals("/zosmf/restjobs/jobs?owner=P390&max-jobs=1")) {
+				return new String[] {"200 OK", "[]"};
+			}
+			if (method.equals("PUT") && path.equals("/zosmf/restfiles/ds/P390.LIB.COBOL(PROG1)")) {
+				_members.put("P390.LIB.COBOL(PROG1)", body);
+				return new String[] {"204 No Content", ""};
+			}
+			if (path.startsWith("/zosmf/restfiles/ds?dslevel=")) {
+				String dsname = path.substring(path.indexOf('=') + 1);
+				String items = dsname.equals("P390.LIB.COBOL")
+						? "{\"dsname\":\"P390.LIB.COBOL\",\"dsorg\":\"PO-E\"}" : "";
+				return new String[] {"200 OK", "{\"items\":[" + items + "],\"returnedRows\":1}"};
+			}
+			if (method.equals("POST") && path.equals("/zosmf/restfiles/ds/P390.LIB.NEW")) {
+				return new String[] {"201 Created", ""};
+			}
+			if (method.equals("PUT") && path.equals("/zosmf/restjobs/jobs")) {
+				_submitted = body;
+				return new String[] {"201 Created",
+						"{\"jobid\":\"JOB00123\",\"jobname\":\"P390LSTC\",\"status\":\"INPUT\"}"};
+			}
+			if (path.equals("/zosmf/restjobs/jobs?owner=*&jobid=JOB00123")) {
+				return new String[] {"200 OK",
+						"[{\"jobid\":\"JOB00123\",\"jobname\":\"P390LSTC\",\"status\":\"ACTIVE\"}]"};
+			}
+			if (path.startsWith("/zosmf/restjobs/jobs?owner=*&jobid=")) {
+				return new String[] {"200 OK", "[]"};
+			}
+			if (method.equals("GET") && path.equals(jobPath)) {
+				String status = (_statusCount++ == 0) ? "ACTIVE" : "OUTPUT";
+				return new String[] {"200 OK", "{\"jobid\":\"JOB00123\",\"jobname\":\"P390LSTC\","
+						+ "\"status\":\"" + status + "\",\"retcode\":\"CC 0004\"}"};
+			}
+			if (path.equals(jobPath + "/files")) {
+				return new String[] {"200 OK", "[{\"ddname\":\"JESMSGLG\",\"id\":2},"
+						+ "{\"ddname\":\"JESYSMSG\",\"id\":4}]"};
+			}
+			if (path.equals(jobPath + "/files/2/records")) {
+				return new String[] {"200 OK", JESMSGLG};
+			}
+			if (path.equals(jobPath + "/files/4/records")) {
+				return new String[] {"200 OK", JESYSMSG};
+			}
+			if (method.equals("DELETE") && path.equals(jobPath)
+					&& "2.0".equals(headers.get("x-ibm-job-modify-version"))) {
+				return new String[] {"200 OK", "{\"status\":0}"};
+			}
+			return new String[] {"404 Not Found", "{\"rc\":4,\"message\":\"Data set not found\"}"};
+		}
+
+		/**
+		 * @param is the connection input
+		 * @return a CRLF terminated line or null at the end of the stream
+		 * @throws IOException if reading fails
+		 */
+		private static String readLine(final InputStream is) throws IOException {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			int b;
+			while ((b = is.read()) != '\n') {
+				if (b < 0) {
+					return null;
+				}
+				if (b != '\r') {
+					baos.write(b);
+				}
+			}
+			return baos.toString("US-ASCII");
+		}
+
+		/**
+		 * @return number of connections accepted
+		 */
+		synchronized int getConnectionCount() {
+			return _connectionCount;
+		}
+
+		/**
+		 * @return uploaded members content, keyed by name
+		 */
+		Map < String, String > getMembers() {
+			return _members;
+		}
+
+		/**
+		 * @return last request line
+		 */
+		synchronized String getLastRequest() {
+			return _lastRequest;
+		}
+
+		/**
+		 * @param name a lower case header name
+		 * @return the header value in the last request
+		 */
+		synchronized String getLastHeader(final String name) {
+			return _lastHeaders.get(name);
+		}
+
+		/**
+		 * @return last request body
+		 */
+		synchronized String getLastBody() {
+			return _lastBody;
+		}
+
+		/**
+		 * @return last job submit request body
+		 */
+		synchronized String getSubmitted() {
+			return _submitted;
+		}
+
+		/**
+		 * @param busy true to reject all requests as if the server was busy
+		 */
+		void setBusy(final boolean busy) {
+			_busy = busy;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2009 LegSem.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     LegSem - initial API and implementation
+ ******************************************************************************/
+package com.legstar.zosjes.perf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.net.io.FromNetASCIIInputStream;
+import org.apache.commons.net.io.ToNetASCIIOutputStream;
+
+import com.legstar.zosjes.CompressedModeInputStream;
+import com.legstar.zosjes.CompressedModeOutputStream;
+import com.legstar.zosjes.Throttle;
+import com.legstar.zosjes.TokenBucket;
+
+/**
+ * Compares the stream and compressed transfer modes on a COBOL source upload
+ * and a compiler listing download.
+ * <p/>
+ * Data goes through the same stream stacks as FtpZosClient uses, and the
+ * data connection is simulated by a token bucket with a WAN like bandwidth,
+ * so that wall times include both the encoding cost and the transfer time.
+ *
+ */
+public class CompressedModePerfTest extends TestCase {
+
+	/** Simulated WAN bandwidth in bytes per second. */
+	private static final long WAN_BYTES_PER_SECOND = 2 * 1024 * 1024;
+
+	/** Size of each sample once repeated. */
+	private static final int SAMPLE_SIZE = 512 * 1024;
+
+	/**
+	 * Upload a COBOL source.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testCobolUpload() throws Exception {
+		byte[] data = loadSample("/perf/CUSTUPD.cbl");
+		Result stream = upload(data, false);
+		Result compressed = upload(data, true);
+		report("COBOL source upload", data.length, stream, compressed);
+		assertTrue(compressed.wireBytes < stream.wireBytes);
+	}
+
+	/**
+	 * Download a compiler listing.
+	 *
+	 * @throws Exception if test fails
+	 */
+	public void testListingDownload() throws Exception {
+		byte[] data = loadSample("/perf/CUSTUPD.lst");
+		Result stream = download(data, false);
+		Result compressed = download(data, true);
+		report("Listing download", data.length, stream, compressed);
+		assertTrue(compressed.wireBytes < stream.wireBytes);
+	}
+
+	/**
+	 * Send data the way FtpZosClient uploads it.
+	 *
+	 * @param data the local content
+	 * @param compressed true for compressed mode
+	 * @return the measures
+	 * @throws Exception if transfer fails
+	 */
+	private Result upload(final byte[] data, final boolean compressed)
+			throws Exception {
+		ByteArrayOutputStream wire = new ByteArrayOutputStream(data.length);
+		Throttle network = new Throttle(new TokenBucket(WAN_BYTES_PER_SECOND,
+				64 * 1024));
+		long start = System.nanoTime();
+		OutputStream os = network.wrap(wire);
+		if (compressed) {
+			os = new CompressedModeOutputStream(os);
+		}
+		os = new ToNetASCIIOutputStream(os);
+		InputStream is = new ByteArrayInputStream(data);
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = is.read(buffer)) > 0) {
+			os.write(buffer, 0, count);
+		}
+		os.close();
+		return new Result(wire.size(), System.nanoTime() - start);
+	}
+
+	/**
+	 * Receive data the way FtpZosClient retrieves it.
+	 *
+	 * @param data the remote content
+	 * @param compressed true for compressed mode
+	 * @return the measures
+	 * @throws Exception if transfer fails
+	 */
+	private Result download(final byte[] data, final boolean compressed)
+			throws Exception {
+		/* What the server puts on the data connection */
+		ByteArrayOutputStream sent = new ByteArrayOutputStream(data.length);
+		OutputStream os = sent;
+		if (compressed) {
+			os = new CompressedModeOutputStream(os);
+		}
+		os = new ToNetASCIIOutputStream(os);
+		os.write(data);
+		os.close();
+
+		Throttle network = new Throttle(new TokenBucket(WAN_BYTES_PER_SECOND,
+				64 * 1024));
+		long start = System.nanoTime();
+		InputStream is = network.wrap(new ByteArrayInputStream(sent
+				.toByteArray()));
+		if (compressed) {
+			is = new CompressedModeInputStream(is);
+		}
+		is = new FromNetASCIIInputStream(is);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length);
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = is.read(buffer)) > 0) {
+			baos.write(buffer, 0, count);
+		}
+		is.close();
+		long elapsed = System.nanoTime() - start;
+		assertTrue(Arrays.equals(data, baos.toByteArray()));
+		return new Result(sent.size(), elapsed);
+	}
+
+	/**
+	 * @param resource a sample resource
+	 * @return the sample repeated up to the sample size
+	 * @throws Exception if the resource cannot be read
+	 */
+	private byte[] loadSample(final String resource) throws Exception {
+		InputStream is = getClass().getResourceAsStream(resource);
+		assertNotNull(resource, is);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = is.read(buffer)) > 0) {
+				baos.write(buffer, 0, count);
+			}
+		} finally {
+			is.close();
+		}
+		byte[] sample = baos.toByteArray();
+		ByteArrayOutputStream repeated = new ByteArrayOutputStream(
+				SAMPLE_SIZE + sample.length);
+		while (repeated.size() < SAMPLE_SIZE) {
+			repeated.write(sample);
+		}
+		return repeated.toByteArray();
+	}
+
+	/**
+	 * Print measures.
+	 *
+	 * @param label what was transferred
+	 * @param size the content size
+	 * @param stream stream mode measures
+	 * @param compressed compressed mode measures
+	 */
+	private void report(final String label, final int size,
+			final Result stream, final Result compressed) {
+		System.out.println(label + ", " + size + " bytes at "
+				+ WAN_BYTES_PER_SECOND + " bytes/s");
+		System.out.println("  stream mode:     " + stream.wireBytes
+				+ " bytes on the wire, " + stream.elapsed / 1000000L + " ms");
+		System.out.println("  compressed mode: " + compressed.wireBytes
+				+ " bytes on the wire, " + compressed.elapsed / 1000000L
+				+ " ms (" + (100L * compressed.wireBytes / stream.wireBytes)
+				+ "% of stream mode bytes)");
+	}
+
+	/**
+	 * Measures of a transfer.
+	 */
+	private static class Result {
+
+		/** Bytes on the data connection. */
+		private final long wireBytes;
+
+		/** Wall time in nanoseconds. */
+		private final long elapsed;
+
+		/**
+		 * @param wireBytes bytes on the data connection
+		 * @param elapsed wall time in nanoseconds
+		 */
+		Result(final long wireBytes, final long elapsed) {
+			this.wireBytes = wireBytes;
+			this.elapsed = elapsed;
+		}
+	}
+}